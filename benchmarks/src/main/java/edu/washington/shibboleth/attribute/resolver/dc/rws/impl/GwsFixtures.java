@@ -0,0 +1,146 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.velocity.VelocityEngine;
+
+import edu.washington.shibboleth.attribute.resolver.dc.rws.HttpDataSource;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.ResourceTiming;
+
+/**
+ * Representative GWS documents and pre-wired components for the benchmarks.
+ */
+public final class GwsFixtures {
+
+    /** The query template most of our connectors use. */
+    public static final String GROUP_SEARCH_TEMPLATE =
+            "group_sws/v1/search?member=${requestContext.principalName}&type=effective";
+
+    /** The xpath most of our connectors use. */
+    public static final String GROUP_NAME_XPATH = "//*[@class='name']";
+
+    private GwsFixtures() {
+    }
+
+    /**
+     * Build a GWS search response listing some number of group memberships.
+     *
+     * @param memberships number of groups
+     * @return the xhtml document
+     */
+    public static String searchResponse(int memberships) {
+        StringBuilder sb = new StringBuilder(200 + memberships * 220);
+        sb.append("<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><title>Group search</title></head>\n");
+        sb.append("<body><div class=\"groupreferences\"><ul class=\"groupreferences\">\n");
+        for (int i = 0; i < memberships; i++) {
+            sb.append("<li class=\"groupreference\"><span class=\"regid\">")
+              .append(String.format("%032x", i))
+              .append("</span> <a class=\"name\" href=\"/group_sws/v1/group/u_bench_group")
+              .append(i).append("\">u_bench_group").append(i)
+              .append("</a> <span class=\"title\">Benchmark group ").append(i).append("</span></li>\n");
+        }
+        sb.append("</ul></div></body></html>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Build a list of attribute values.
+     */
+    public static List<String> values(int n) {
+        List<String> values = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            values.add("u_bench_group" + i);
+        }
+        return values;
+    }
+
+    /**
+     * Build an initialized query string builder.
+     */
+    public static TemplatedQueryStringBuilder queryStringBuilder(String template)
+            throws ComponentInitializationException {
+        TemplatedQueryStringBuilder builder = new TemplatedQueryStringBuilder();
+        builder.setVelocityEngine(VelocityEngine.newVelocityEngine());
+        builder.setV2Compatibility(true);
+        builder.setTemplateText(template);
+        builder.initialize();
+        return builder;
+    }
+
+    /**
+     * Build a resolution context for a principal.
+     */
+    public static AttributeResolutionContext resolutionContext(String principal) {
+        AttributeResolutionContext context = new AttributeResolutionContext();
+        context.setPrincipal(principal);
+        return context;
+    }
+
+    /**
+     * Build an initialized connector returning a fixed document.
+     */
+    public static RwsDataConnector connector(String content) throws ComponentInitializationException {
+        return connector("https://localhost/", new StaticHttpDataSource(content));
+    }
+
+    /**
+     * Build an initialized connector using a data source.
+     */
+    public static RwsDataConnector connector(String baseUrl, HttpDataSource dataSource)
+            throws ComponentInitializationException {
+        RwsAttribute attr = new RwsAttribute();
+        attr.name = "memberOf";
+        attr.xPath = GROUP_NAME_XPATH;
+        attr.maxResultSize = 0;
+        attr.shareValues = true;
+        List<RwsAttribute> attrs = new ArrayList<>();
+        attrs.add(attr);
+
+        RwsDataConnector connector = new RwsDataConnector();
+        connector.setId("benchmark");
+        connector.setBaseUrl(baseUrl);
+        connector.setHttpDataSource(dataSource);
+        connector.setQueryStringBuilder(queryStringBuilder(GROUP_SEARCH_TEMPLATE));
+        connector.setRwsAttributes(attrs);
+        connector.initialize();
+        return connector;
+    }
+
+    /**
+     * Data source that returns a fixed document without touching the network.
+     */
+    public static class StaticHttpDataSource extends HttpDataSource {
+
+        private final String content;
+
+        public StaticHttpDataSource(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public String getResource(String url, ResourceTiming timing) {
+            if (timing != null) timing.responseSize = content.length();
+            return content;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.shibboleth.idp.attribute.resolver.ResolutionException;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+
+import edu.washington.shibboleth.attribute.resolver.dc.rws.HttpDataSource;
+
+/**
+ * Drives a RwsDataConnector, through a real HttpDataSource, against a local {@link StubRwsServer}
+ * from many threads and reports throughput and latency percentiles.
+ *
+ * Configured with system properties, e.g.
+ * <pre>
+ *   java -Dloadtest.threads=64 -Dloadtest.latency=LOGNORMAL -cp benchmarks.jar ...LoadTest
+ * </pre>
+ * <ul>
+ * <li>loadtest.threads (32), loadtest.duration seconds (30), loadtest.warmup seconds (5)</li>
+ * <li>loadtest.memberships (100), loadtest.latency FIXED|UNIFORM|EXPONENTIAL|LOGNORMAL (FIXED),
+ *     loadtest.latencyMean ms (20), loadtest.errorRate (0)</li>
+ * <li>loadtest.maxConnections (10)</li>
+ * <li>loadtest.serverKeyStore, loadtest.serverKeyStorePassword: PKCS12 server key, enables https</li>
+ * <li>loadtest.clientTrustStore, loadtest.clientTrustStorePassword: PKCS12 client CA, requires client certs</li>
+ * <li>loadtest.caCertificateFile, loadtest.certificateFile, loadtest.keyFile: passed to the HttpDataSource</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int threads = Integer.getInteger("loadtest.threads", 32);
+        final long duration = Long.getLong("loadtest.duration", 30);
+        final long warmup = Long.getLong("loadtest.warmup", 5);
+
+        StubRwsServer server = new StubRwsServer();
+        server.setMemberships(Integer.getInteger("loadtest.memberships", 100));
+        server.setLatency(StubRwsServer.LATENCY.valueOf(System.getProperty("loadtest.latency", "FIXED")));
+        server.setLatencyMean(Double.parseDouble(System.getProperty("loadtest.latencyMean", "20")));
+        server.setErrorRate(Double.parseDouble(System.getProperty("loadtest.errorRate", "0")));
+        server.setKeyStoreFile(System.getProperty("loadtest.serverKeyStore"));
+        server.setKeyStorePassword(System.getProperty("loadtest.serverKeyStorePassword", "changeit"));
+        server.setTrustStoreFile(System.getProperty("loadtest.clientTrustStore"));
+        server.setTrustStorePassword(System.getProperty("loadtest.clientTrustStorePassword", "changeit"));
+        String baseUrl = server.start(0);
+
+        HttpDataSource dataSource = new HttpDataSource();
+        dataSource.setMaxConnections(Integer.getInteger("loadtest.maxConnections", 10));
+        dataSource.setCaCertificateFile(System.getProperty("loadtest.caCertificateFile"));
+        dataSource.setCertificateFile(System.getProperty("loadtest.certificateFile"));
+        dataSource.setKeyFile(System.getProperty("loadtest.keyFile"));
+        dataSource.setAcceptHeader("text/xml");
+        dataSource.initialize();
+
+        final RwsDataConnector connector = GwsFixtures.connector(baseUrl, dataSource);
+
+        System.out.println("load test: " + baseUrl + " threads=" + threads + " duration=" + duration + "s");
+        run(connector, threads, TimeUnit.SECONDS.toNanos(warmup));
+        Result result = run(connector, threads, TimeUnit.SECONDS.toNanos(duration));
+        result.print();
+
+        dataSource.close();
+        server.stop();
+    }
+
+    /**
+     * Resolve from many threads for some time.
+     */
+    static Result run(final RwsDataConnector connector, int threads, final long nanos) throws InterruptedException {
+        final long[][] latencies = new long[threads][];
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long end = System.nanoTime() + nanos;
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread thread = new Thread("loadtest-" + t) {
+                @Override
+                public void run() {
+                    long[] times = new long[1024];
+                    int n = 0;
+                    long start;
+                    while ((start = System.nanoTime()) < end) {
+                        AttributeResolutionContext ctx = new AttributeResolutionContext();
+                        ctx.setPrincipal("user" + id + "_" + n);
+                        ctx.getSubcontext(AttributeResolverWorkContext.class, true);
+                        try {
+                            connector.resolve(ctx);
+                        } catch (ResolutionException e) {
+                            errors.incrementAndGet();
+                        }
+                        if (n == times.length) times = Arrays.copyOf(times, n * 2);
+                        times[n++] = System.nanoTime() - start;
+                    }
+                    latencies[id] = Arrays.copyOf(times, n);
+                    done.countDown();
+                }
+            };
+            thread.start();
+        }
+        done.await();
+
+        int total = 0;
+        for (long[] l : latencies) total += l.length;
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, all, pos, l.length);
+            pos += l.length;
+        }
+        Arrays.sort(all);
+        return new Result(all, errors.get(), nanos);
+    }
+
+    /**
+     * Latencies of one run.
+     */
+    static class Result {
+
+        private final long[] sorted;
+        private final long errors;
+        private final long nanos;
+
+        Result(long[] sorted, long errors, long nanos) {
+            this.sorted = sorted;
+            this.errors = errors;
+            this.nanos = nanos;
+        }
+
+        long percentile(double p) {
+            if (sorted.length == 0) return 0;
+            int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+        }
+
+        void print() {
+            double seconds = nanos / 1e9;
+            System.out.printf("resolutions=%d errors=%d throughput=%.1f/s%n",
+                    sorted.length, errors, sorted.length / seconds);
+            System.out.printf("latency ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                    percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6,
+                    percentile(99.9) / 1e6, percentile(100) / 1e6);
+        }
+    }
+}
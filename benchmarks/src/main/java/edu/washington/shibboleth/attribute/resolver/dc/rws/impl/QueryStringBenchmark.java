@@ -0,0 +1,67 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+
+/**
+ * Cost of rendering the query template for one login.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryStringBenchmark {
+
+    private TemplatedQueryStringBuilder builder;
+
+    private AttributeResolutionContext resolutionContext;
+
+    private Map<String, List<IdPAttributeValue<?>>> dependencies;
+
+    @Setup
+    public void setup() throws Exception {
+        builder = GwsFixtures.queryStringBuilder(GwsFixtures.GROUP_SEARCH_TEMPLATE);
+        resolutionContext = GwsFixtures.resolutionContext("benchuser");
+        dependencies = Collections.emptyMap();
+    }
+
+    @Benchmark
+    public String getQueryString() {
+        return builder.getQueryString(resolutionContext, dependencies);
+    }
+}
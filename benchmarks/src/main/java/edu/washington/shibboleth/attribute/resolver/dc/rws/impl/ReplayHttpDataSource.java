@@ -0,0 +1,107 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.washington.shibboleth.attribute.resolver.dc.rws.HttpDataSource;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.ResourceTiming;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.ResponseReader;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.TrafficCapture;
+
+/**
+ * Data source that answers from a capture file, written by an HttpDataSource with a
+ * captureFile and captureBodies, without touching the network.
+ *
+ * Each url gets its captured responses in turn, after the captured elapsed time multiplied
+ * by the latency scale.  Urls not captured fail.
+ */
+public class ReplayHttpDataSource extends HttpDataSource {
+
+    /** captured responses by url */
+    private final Map<String, Replies> replies = new HashMap<>();
+
+    /** elapsed time multiplier, 0 answers at once */
+    private final double latencyScale;
+
+    /**
+     * Load a capture.
+     *
+     * @param records the captured requests
+     * @param latencyScale elapsed time multiplier, 0 answers at once
+     */
+    public ReplayHttpDataSource(List<TrafficCapture.Record> records, double latencyScale) {
+        this.latencyScale = latencyScale;
+        for (TrafficCapture.Record record : records) {
+            Replies r = replies.get(record.url);
+            if (r == null) {
+                r = new Replies();
+                replies.put(record.url, r);
+            }
+            r.records.add(record);
+        }
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void warmUp(String baseUrl) {
+    }
+
+    @Override
+    public <T> T getResource(String url, ResourceTiming timing, ResponseReader<T> reader) throws IOException {
+        Replies r = replies.get(url);
+        if (r == null) throw new IOException("no captured response for " + url);
+        TrafficCapture.Record record = r.records.get((r.next.getAndIncrement() & Integer.MAX_VALUE) % r.records.size());
+        long start = System.nanoTime();
+        long delay = (long) (record.nanos * latencyScale);
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted");
+            }
+        }
+        if (timing != null) {
+            timing.statusCode = record.status;
+            timing.networkTime = System.nanoTime() - start;
+            timing.responseSize = record.body != null ? record.body.length() : 0;
+        }
+        if (record.status == 0) throw new IOException("captured request failed: " + url);
+        if (record.body == null) throw new IOException("capture has no bodies");
+        return reader.read(new StringReader(record.body));
+    }
+
+    /**
+     * The captured responses to one url.
+     */
+    private static class Replies {
+        final List<TrafficCapture.Record> records = new ArrayList<>();
+        final AtomicInteger next = new AtomicInteger();
+    }
+}
@@ -0,0 +1,102 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.shibboleth.idp.attribute.resolver.ResolutionException;
+
+import edu.washington.shibboleth.attribute.resolver.dc.rws.ResourceTiming;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.TrafficCapture;
+
+/**
+ * Replays a capture file through a RwsDataConnector and a {@link ReplayHttpDataSource},
+ * with the captured arrival pattern, and reports throughput and latency percentiles.
+ *
+ * Configured with system properties, e.g.
+ * <pre>
+ *   java -Dreplay.file=rws.capture -Dreplay.timeScale=0.5 -cp benchmarks.jar ...ReplayTest
+ * </pre>
+ * <ul>
+ * <li>replay.file: the capture, written with captureBodies</li>
+ * <li>replay.latencyScale (1): multiplies the captured response times, 0 answers at once</li>
+ * <li>replay.timeScale (1): multiplies the gaps between arrivals, 0 sends them all at once</li>
+ * <li>replay.threads (64): resolver threads</li>
+ * </ul>
+ * Responses are matched with the GWS group search attribute of {@link GwsFixtures}.
+ */
+public final class ReplayTest {
+
+    private ReplayTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = System.getProperty("replay.file");
+        if (file == null) throw new IllegalArgumentException("replay.file is required");
+        double latencyScale = Double.parseDouble(System.getProperty("replay.latencyScale", "1"));
+        double timeScale = Double.parseDouble(System.getProperty("replay.timeScale", "1"));
+        int threads = Integer.getInteger("replay.threads", 64);
+
+        List<TrafficCapture.Record> records = TrafficCapture.read(file);
+        if (records.isEmpty()) throw new IllegalArgumentException(file + " holds no requests");
+        ReplayHttpDataSource dataSource = new ReplayHttpDataSource(records, latencyScale);
+        // captured urls are complete, so the connector's base url is empty
+        final RwsDataConnector connector = GwsFixtures.connector("", dataSource);
+
+        System.out.println("replay: " + file + " requests=" + records.size() + " latencyScale=" + latencyScale
+                + " timeScale=" + timeScale + " threads=" + threads);
+        final long[] latencies = new long[records.size()];
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicLong errors = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long first = records.get(0).start;
+        long begin = System.nanoTime();
+        for (int i = 0; i < records.size(); i++) {
+            final TrafficCapture.Record record = records.get(i);
+            final int index = i;
+            long due = begin + (long) (TimeUnit.MILLISECONDS.toNanos(record.start - first) * timeScale);
+            long wait = due - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            final long arrival = System.nanoTime();
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        connector.getRwsAttributes(record.url, new ResourceTiming());
+                    } catch (ResolutionException e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies[index] = System.nanoTime() - arrival;
+                    done.incrementAndGet();
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.DAYS);
+        long elapsed = System.nanoTime() - begin;
+
+        long[] sorted = Arrays.copyOf(latencies, done.get());
+        Arrays.sort(sorted);
+        new LoadTest.Result(sorted, errors.get(), elapsed).print();
+    }
+}
@@ -0,0 +1,74 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+
+/**
+ * Cost of parsing a GWS response, evaluating the xpaths and building the IdP attributes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RwsAttributesBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int memberships;
+
+    private RwsDataConnector connector;
+
+    private List<String> values;
+
+    @Setup
+    public void setup() throws Exception {
+        connector = GwsFixtures.connector(GwsFixtures.searchResponse(memberships));
+        values = GwsFixtures.values(memberships);
+    }
+
+    @Benchmark
+    public Map<String, IdPAttribute> getRwsAttributes() throws Exception {
+        return connector.getRwsAttributes("group_sws/v1/search?member=benchuser&type=effective");
+    }
+
+    @Benchmark
+    public Map<String, IdPAttribute> addIdPAttributes() {
+        Map<String, IdPAttribute> attributes = new HashMap<>();
+        connector.addIdPAttributes(attributes, "memberOf", values, true);
+        return attributes;
+    }
+}
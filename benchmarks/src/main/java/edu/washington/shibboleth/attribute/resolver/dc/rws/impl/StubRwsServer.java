@@ -0,0 +1,230 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * A local HTTP(S) server that emulates the GWS group search.
+ *
+ * Every request is answered with the same search document after a delay drawn from the
+ * configured latency distribution.  A configurable fraction of requests fail with a 500.
+ */
+public class StubRwsServer {
+
+    /** Latency distributions. */
+    public static enum LATENCY {
+        /** always the mean */
+        FIXED,
+        /** uniform between 0 and twice the mean */
+        UNIFORM,
+        /** exponential with the given mean */
+        EXPONENTIAL,
+        /** log-normal with the given median and a long tail */
+        LOGNORMAL
+    };
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /** response body */
+    private byte[] response = GwsFixtures.searchResponse(100).getBytes(StandardCharsets.UTF_8);
+
+    private LATENCY latency = LATENCY.FIXED;
+
+    /** mean (median for LOGNORMAL) latency in milliseconds */
+    private double latencyMean = 20;
+
+    /** fraction of requests answered with a 500 */
+    private double errorRate;
+
+    /** server key store (PKCS12), enables https */
+    private String keyStoreFile;
+
+    private String keyStorePassword = "changeit";
+
+    /** client CA trust store (PKCS12), enables client cert authn */
+    private String trustStoreFile;
+
+    private String trustStorePassword = "changeit";
+
+    /**
+     * Start listening.
+     *
+     * @param port the port, 0 for any
+     * @return the base URL of the server
+     */
+    public String start(int port) throws IOException, GeneralSecurityException {
+        InetSocketAddress addr = new InetSocketAddress("localhost", port);
+        if (keyStoreFile != null) {
+            HttpsServer https = HttpsServer.create(addr, 1024);
+            final SSLContext ctx = sslContext();
+            final boolean needClientAuth = trustStoreFile != null;
+            https.setHttpsConfigurator(new HttpsConfigurator(ctx) {
+                @Override
+                public void configure(HttpsParameters params) {
+                    SSLParameters sslParams = ctx.getDefaultSSLParameters();
+                    sslParams.setNeedClientAuth(needClientAuth);
+                    params.setSSLParameters(sslParams);
+                }
+            });
+            server = https;
+        } else {
+            server = HttpServer.create(addr, 1024);
+        }
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new SearchHandler());
+        server.start();
+        return (keyStoreFile != null ? "https" : "http") + "://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Stop the server.
+     */
+    public void stop() {
+        if (server != null) server.stop(0);
+        if (executor != null) executor.shutdownNow();
+    }
+
+    private SSLContext sslContext() throws IOException, GeneralSecurityException {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(loadKeyStore(keyStoreFile, keyStorePassword), keyStorePassword.toCharArray());
+        TrustManagerFactory tmf = null;
+        if (trustStoreFile != null) {
+            tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(loadKeyStore(trustStoreFile, trustStorePassword));
+        }
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), tmf == null ? null : tmf.getTrustManagers(), null);
+        return ctx;
+    }
+
+    private static KeyStore loadKeyStore(String file, String password) throws IOException, GeneralSecurityException {
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            ks.load(in, password.toCharArray());
+        }
+        return ks;
+    }
+
+    /**
+     * Draw a delay, in milliseconds, from the latency distribution.
+     */
+    long nextDelay(Random random) {
+        switch (latency) {
+            case UNIFORM:
+                return (long) (random.nextDouble() * 2 * latencyMean);
+            case EXPONENTIAL:
+                return (long) (-Math.log(1 - random.nextDouble()) * latencyMean);
+            case LOGNORMAL:
+                return (long) (latencyMean * Math.exp(0.6 * random.nextGaussian()));
+            default:
+                return (long) latencyMean;
+        }
+    }
+
+    /**
+     * Answers every request with the search document.
+     */
+    private class SearchHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long delay = nextDelay(random);
+                if (delay > 0) Thread.sleep(delay);
+
+                byte[] body = response;
+                int status = 200;
+                if (errorRate > 0 && random.nextDouble() < errorRate) {
+                    body = "error".getBytes(StandardCharsets.UTF_8);
+                    status = 500;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(status, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /** Setters */
+
+    public void setMemberships(int n) {
+        response = GwsFixtures.searchResponse(n).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public void setLatency(LATENCY l) {
+        latency = l;
+    }
+
+    public void setLatencyMean(double ms) {
+        latencyMean = ms;
+    }
+
+    public void setErrorRate(double r) {
+        errorRate = r;
+    }
+
+    public void setKeyStoreFile(String v) {
+        keyStoreFile = v;
+    }
+
+    public void setKeyStorePassword(String v) {
+        keyStorePassword = v;
+    }
+
+    public void setTrustStoreFile(String v) {
+        trustStoreFile = v;
+    }
+
+    public void setTrustStorePassword(String v) {
+        trustStorePassword = v;
+    }
+}
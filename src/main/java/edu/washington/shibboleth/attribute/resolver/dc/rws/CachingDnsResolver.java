@@ -0,0 +1,229 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>CachingDnsResolver</code> caches host lookups for the connection pool and spreads
+ * new connections over a host's addresses.
+ *
+ * Addresses are kept for ttl milliseconds and failed lookups for negativeTtl.  Hosts in
+ * use are looked up again in the background every refreshInterval, so lookups stay off
+ * the request path; if a background lookup fails the old addresses are kept.  Each lookup
+ * returns the addresses rotated by one, so successive new connections start at
+ * successive addresses.
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+    /** Class logger. */
+    private static Logger log = LoggerFactory.getLogger(CachingDnsResolver.class);
+
+    /** milliseconds addresses are kept */
+    private long ttl = 300000;
+
+    /** milliseconds failed lookups are kept */
+    private long negativeTtl = 10000;
+
+    /** milliseconds between background lookups, 0 disables them */
+    private long refreshInterval = 60000;
+
+    /** the lookups */
+    private DnsResolver delegate = SystemDefaultDnsResolver.INSTANCE;
+
+    /** cached lookups by host */
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+    /** refreshes the cache, started by the first lookup */
+    private ScheduledExecutorService refresher;
+
+    /**
+     * Returns the host's addresses, rotated.
+     */
+    public InetAddress[] resolve(final String host) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(host);
+        if (entry == null || entry.expires <= now) {
+            entry = lookup(host, entry);
+            startRefresher();
+        }
+        entry.used = true;
+        if (entry.addresses == null) throw new UnknownHostException(host);
+        return entry.rotate();
+    }
+
+    /**
+     * Look a host up and cache the result.  A failure keeps the previous addresses, if any,
+     * for negativeTtl.
+     */
+    private Entry lookup(String host, Entry previous) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        try {
+            InetAddress[] addresses = delegate.resolve(host);
+            entry = new Entry(addresses, now + ttl, previous);
+            if (previous == null || !Arrays.equals(previous.addresses, addresses)) {
+                log.debug("dns {}: {}", host, Arrays.toString(addresses));
+            }
+        } catch (UnknownHostException e) {
+            log.debug("dns {}: {}", host, e.toString());
+            entry = new Entry(previous != null ? previous.addresses : null, now + negativeTtl, previous);
+            if (previous != null && previous.addresses != null) {
+                log.warn("dns lookup of {} failed, keeping {}", host, Arrays.toString(previous.addresses));
+            }
+        }
+        cache.put(host, entry);
+        return entry;
+    }
+
+    /**
+     * Look up again the hosts used since the last refresh, and drop the others once expired.
+     */
+    void refresh() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> e : cache.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.used) {
+                entry.used = false;
+                try {
+                    lookup(e.getKey(), entry);
+                } catch (UnknownHostException ex) {
+                    // lookup caches failures
+                } catch (RuntimeException ex) {
+                    log.error("dns refresh of {}: {}", e.getKey(), ex.toString());
+                }
+            } else if (entry.expires <= now) {
+                cache.remove(e.getKey(), entry);
+            }
+        }
+    }
+
+    /**
+     * Start the background lookups, if enabled and not already running
+     */
+    private synchronized void startRefresher() {
+        if (refresher != null || refreshInterval <= 0) return;
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "CachingDnsResolver refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background lookups
+     */
+    public synchronized void close() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+        cache.clear();
+    }
+
+    /**
+     * This sets how long, in milliseconds, addresses are kept.
+     *
+     * @param l <code>long</code> milliseconds
+     */
+    public void setTtl(long l) {
+        ttl = l;
+    }
+
+    /**
+     * This sets how long, in milliseconds, failed lookups are kept.
+     *
+     * @param l <code>long</code> milliseconds
+     */
+    public void setNegativeTtl(long l) {
+        negativeTtl = l;
+    }
+
+    /**
+     * This sets the interval, in milliseconds, between background lookups of the hosts
+     * in use.  0 disables them.
+     *
+     * @param l <code>long</code> milliseconds
+     */
+    public void setRefreshInterval(long l) {
+        refreshInterval = l;
+    }
+
+    /**
+     * This sets the resolver that makes the lookups.  The default is the JVM's.
+     *
+     * @param r <code>DnsResolver</code>
+     */
+    public void setDelegate(DnsResolver r) {
+        delegate = r;
+    }
+
+    /**
+     * A cached lookup
+     */
+    private static class Entry {
+        /** the addresses, null if the host is unknown */
+        final InetAddress[] addresses;
+        final long expires;
+        /** first address of the next lookup */
+        final AtomicInteger next;
+        /** whether used since the last refresh */
+        volatile boolean used;
+
+        Entry(InetAddress[] addresses, long expires, Entry previous) {
+            this.addresses = addresses;
+            this.expires = expires;
+            this.next = previous != null ? previous.next : new AtomicInteger();
+            this.used = previous != null && previous.used;
+        }
+
+        InetAddress[] rotate() {
+            int n = addresses.length;
+            if (n < 2) return addresses.clone();
+            int start = (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+            InetAddress[] rotated = new InetAddress[n];
+            for (int i = 0; i < n; i++) {
+                rotated[i] = addresses[(start + i) % n];
+            }
+            return rotated;
+        }
+    }
+}
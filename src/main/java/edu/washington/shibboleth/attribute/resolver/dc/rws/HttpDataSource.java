@@ -22,17 +22,40 @@ import java.lang.ThreadLocal;
 import java.io.File;
 import java.util.List;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URL;
 import java.net.MalformedURLException;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import java.security.cert.CertificateFactory;
@@ -47,32 +70,49 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import javax.net.ssl.HostnameVerifier;
 
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.entity.ContentType;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
 
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
 
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.params.BasicHttpParams;
 
 import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
@@ -81,6 +121,7 @@ import org.apache.http.auth.Credentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.AuthState;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
 
@@ -93,10 +134,28 @@ import org.slf4j.LoggerFactory;
  */
 public class HttpDataSource {
 
+    /** Request priority classes. */
+    public static enum PRIORITY {
+        /** A user is waiting, e.g. a login. */
+        INTERACTIVE,
+        /** Nobody is waiting, e.g. attribute queries from batch jobs.  Shed under load. */
+        BACKGROUND
+    };
+
     /** Class logger. */
     private static Logger log = LoggerFactory.getLogger(HttpDataSource.class);
 
-    private SSLConnectionSocketFactory socketFactory;
+    /** TLS socket factory, swapped when the credentials change */
+    private ReloadableSocketFactory socketFactory;
+
+    /** Interval, in milliseconds, between checks of the credential files.  0 disables. */
+    private long credentialCheckInterval = 60000;
+
+    /** modification times and sizes of the credential files when last loaded */
+    private String credentialStamp;
+
+    /** checks the credential files */
+    private ScheduledExecutorService credentialWatch;
 
     /** Username if basic auth */
     private String username = null;
@@ -122,6 +181,56 @@ public class HttpDataSource {
     /** max connections */
     private int maxConnections = 10;
 
+    /** max connections to any one host, 0 is maxConnections */
+    private int maxConnectionsPerRoute = 0;
+
+    /** per host max connections, e.g. "host:port=5, host2=2" */
+    private String routeMaxConnections;
+
+    /** parsed per host limits */
+    private Map<HttpRoute, Integer> routeLimits = new LinkedHashMap<HttpRoute, Integer>();
+
+    /** host lookups for new connections, null uses the JVM's */
+    private DnsResolver dnsResolver;
+
+    /** name of a pool shared with other data sources, null if not shared */
+    private String sharedPool;
+
+    /** key of the shared pool we hold */
+    private String sharedPoolKey;
+
+    /** connections opened to each base URL at startup, 0 disables */
+    private int warmupConnections = 0;
+
+    /** path, relative to the base URL, requested once after warm-up, e.g. a health check */
+    private String warmupPath;
+
+    /** set once warmupPath has been requested, by whichever connector warmed up first */
+    private final AtomicBoolean warmupPathRequested = new AtomicBoolean();
+
+    /** time, in milliseconds, allowed for each warm-up connection and the warm-up request */
+    private int warmupTimeout = 10000;
+
+    /** TLS client session cache size, -1 uses the JVM default */
+    private int sessionCacheSize = -1;
+
+    /** TLS client session timeout in seconds, -1 uses the JVM default */
+    private int sessionTimeout = -1;
+
+    /** TLS protocols, in preference order, null uses the JVM default */
+    private String tlsProtocols;
+
+    /** TLS cipher suites, in preference order, null uses the JVM default */
+    private String tlsCipherSuites;
+
+    /** handshake counts and time since the last summary, of connections opened for our requests */
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong handshakeNanos = new AtomicLong();
+
+    /** Pools shared between data sources, by name and TLS configuration */
+    private static final Map<String, SharedPool> sharedPools = new HashMap<String, SharedPool>();
+
     private String caCertificateFile;
     private String certificateFile;
     private String keyFile;
@@ -130,6 +239,42 @@ public class HttpDataSource {
     private boolean isBasicAuthn = false;
     private boolean isCertAuthn = false;
 
+    /** Whether requests are admitted by priority, up to maxConnections at once */
+    private boolean admissionControl = false;
+
+    /** Milliseconds a background request waits for admission before it is shed */
+    private long shedAfter = 1000;
+
+    /** Milliseconds a request waits for admission, and for a pooled connection */
+    private int connectionRequestTimeout = 10000;
+
+    /** admits requests by priority, null if admissionControl is off */
+    private AdmissionGate admission;
+
+    /** background requests shed since the last summary */
+    private final AtomicLong shedRequests = new AtomicLong();
+
+    /** file requests are captured to, null if not captured */
+    private String captureFile;
+
+    /** whether response bodies are captured */
+    private boolean captureBodies = false;
+
+    /** pattern of text replaced in captured urls and bodies, null if none */
+    private String captureRedact;
+
+    /** the capture, null if not captured */
+    private TrafficCapture capture;
+
+    /** Largest response body, in bytes, that will be read.  0 is unlimited. */
+    private long maxResponseSize = 0;
+
+    /** Interval, in milliseconds, between request summaries.  0 disables. */
+    private long summaryInterval = 300000;
+
+    /** Aggregated request statistics */
+    private RequestStatistics statistics;
+
     /** 
     /**
      * Constructor
@@ -143,22 +288,22 @@ public class HttpDataSource {
     public void initialize() throws IOException {
        log.info("HttpDataSource: initialize");
        
-       SSLConnectionSocketFactory sf = getSocketFactory();
-       Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
-         .register("https", sf)
-         .register("http", PlainConnectionSocketFactory.INSTANCE)
-         .build();
-
-       connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
-       connectionManager.setMaxTotal(maxConnections);
-       connectionManager.setDefaultMaxPerRoute(maxConnections);
+       routeLimits = parseRouteLimits(routeMaxConnections);
+       if (sharedPool != null) {
+          connectionManager = acquireSharedPool();
+       } else {
+          connectionManager = createConnectionManager();
+       }
 
        /*
         * Create our client 
         */
 
        // HttpClientBuilder cb = HttpClients.custom().setConnectionManager(connectionManager);
-       HttpClientBuilder cb = HttpClientBuilder.create().setConnectionManager(connectionManager);
+       HttpClientBuilder cb = HttpClientBuilder.create().setConnectionManager(connectionManager)
+               .setDefaultRequestConfig(RequestConfig.custom()
+                       .setConnectionRequestTimeout(connectionRequestTimeout)
+                       .build());
        // requires lib 4.x
        // cb = cb.setConnectionManagerShared(true);
 
@@ -170,8 +315,306 @@ public class HttpDataSource {
           log.info("HttpDataSource: added basic creds ");
        }
        httpClient = cb.build(); 
+       if (admissionControl) admission = new AdmissionGate(maxConnections);
+       if (captureFile != null) {
+          capture = new TrafficCapture(captureFile, captureBodies, captureRedact);
+          log.info("HttpDataSource: capturing requests to {}", captureFile);
+       }
+       statistics = new RequestStatistics("HttpDataSource", summaryInterval);
+    }
+
+    /**
+     * Create a connection manager with our TLS configuration and limits
+     */
+    private PoolingHttpClientConnectionManager createConnectionManager() throws IOException {
+       credentialStamp = credentialStamp();
+       SSLConnectionSocketFactory sf = getSocketFactory();
+       if (sf == null) throw new IOException("HttpDataSource: could not create the TLS socket factory");
+       socketFactory = new ReloadableSocketFactory(sf);
+       startCredentialWatch();
+       Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create()
+         .register("https", socketFactory)
+         .register("http", PlainConnectionSocketFactory.INSTANCE)
+         .build();
+
+       PoolingHttpClientConnectionManager cm = new TimedConnectionManager(socketFactoryRegistry, dnsResolver,
+               socketFactory);
+       cm.setMaxTotal(maxConnections);
+       cm.setDefaultMaxPerRoute(maxConnectionsPerRoute > 0 ? maxConnectionsPerRoute : maxConnections);
+       applyRouteLimits(cm);
+       return cm;
+    }
+
+    /**
+     * Check the credential files periodically, if there are any
+     */
+    private void startCredentialWatch() {
+       if (credentialCheckInterval <= 0) return;
+       if (caCertificateFile == null && certificateFile == null && keyFile == null) return;
+       credentialWatch = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+           public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "HttpDataSource credential watch");
+               t.setDaemon(true);
+               return t;
+           }
+       });
+       credentialWatch.scheduleWithFixedDelay(new Runnable() {
+           public void run() {
+               checkCredentials();
+           }
+       }, credentialCheckInterval, credentialCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Modification times and sizes of the credential files
+     */
+    private String credentialStamp() {
+       StringBuilder sb = new StringBuilder();
+       for (String name : new String[] {caCertificateFile, certificateFile, keyFile}) {
+          if (name == null) continue;
+          File file = new File(name);
+          sb.append(file.lastModified()).append('/').append(file.length()).append(' ');
+       }
+       return sb.toString();
+    }
+
+    /**
+     * Reload the credentials if their files have changed.  New connections use the new
+     * TLS context.  Idle pooled connections are closed at once, and those in use are
+     * closed when released rather than reused, so no connection outlives a rotation by
+     * more than one request.  If the new files can not be loaded the current credentials
+     * stay in use.
+     */
+    void checkCredentials() {
+       try {
+          String stamp = credentialStamp();
+          if (stamp.equals(credentialStamp)) return;
+          credentialStamp = stamp;
+          SSLConnectionSocketFactory sf = getSocketFactory();
+          if (sf == null) {
+             log.error("HttpDataSource: credential files changed but could not be loaded, keeping the current ones");
+             return;
+          }
+          socketFactory.setDelegate(sf);
+          connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+          log.info("HttpDataSource: reloaded credentials, connections opened with the old ones are closed");
+       } catch (IOException e) {
+          log.error("HttpDataSource: credential reload error: {}", e.toString());
+       } catch (RuntimeException e) {
+          // keep the watch running
+          log.error("HttpDataSource: credential reload error: {}", e.toString());
+       }
+    }
+
+    /**
+     * Set the per host limits on a connection manager
+     */
+    private void applyRouteLimits(PoolingHttpClientConnectionManager cm) {
+       for (Map.Entry<HttpRoute, Integer> limit : routeLimits.entrySet()) {
+          log.info("HttpDataSource: max {} connections to {}", limit.getValue(), limit.getKey().getTargetHost());
+          cm.setMaxPerRoute(limit.getKey(), limit.getValue());
+       }
     }
 
+    /**
+     * Join, or create, the named shared pool.  Data sources share a pool only if the
+     * settings the pool is built with are also the same, so connections (and TLS sessions)
+     * are never used with another's credentials and no member's settings are silently
+     * ignored.  The pool's total is the largest maxConnections of its members, and each
+     * member's routeMaxConnections are applied.
+     */
+    private PoolingHttpClientConnectionManager acquireSharedPool() throws IOException {
+       String key = sharedPool + "|" + poolSettings();
+       synchronized (sharedPools) {
+          SharedPool pool = sharedPools.get(key);
+          if (pool == null) {
+             for (String other : sharedPools.keySet()) {
+                if (other.startsWith(sharedPool + "|")) {
+                   log.warn("HttpDataSource: settings differ from another member of pool {}, using a separate pool."
+                           + " Members must agree on the certificate, key and CA files, maxConnectionsPerRoute,"
+                           + " sessionCacheSize, sessionTimeout, tlsProtocols, tlsCipherSuites,"
+                           + " credentialCheckInterval and dnsResolver", sharedPool);
+                   break;
+                }
+             }
+             pool = new SharedPool(createConnectionManager(), credentialWatch);
+             sharedPools.put(key, pool);
+             log.info("HttpDataSource: created shared pool {}", sharedPool);
+          } else {
+             if (maxConnections > pool.manager.getMaxTotal()) pool.manager.setMaxTotal(maxConnections);
+             applyRouteLimits(pool.manager);
+             log.info("HttpDataSource: joined shared pool {}", sharedPool);
+          }
+          pool.references++;
+          sharedPoolKey = key;
+          return pool.manager;
+       }
+    }
+
+    /**
+     * The settings applied when a pool and its TLS context are built, which the members of
+     * a shared pool must agree on.  A resolver is the same only if it is the same object.
+     */
+    private String poolSettings() {
+       String resolver = dnsResolver == null ? null
+               : dnsResolver.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(dnsResolver));
+       return caCertificateFile + "|" + certificateFile + "|" + keyFile + "|" + maxConnectionsPerRoute + "|"
+               + sessionCacheSize + "|" + sessionTimeout + "|" + tlsProtocols + "|" + tlsCipherSuites + "|"
+               + credentialCheckInterval + "|" + resolver;
+    }
+
+    /**
+     * Parse per host limits: comma separated <code>[scheme://]host[:port]=max</code>.
+     * The scheme defaults to https.
+     */
+    static Map<HttpRoute, Integer> parseRouteLimits(String spec) {
+       Map<HttpRoute, Integer> limits = new LinkedHashMap<HttpRoute, Integer>();
+       if (spec == null) return limits;
+       for (String item : spec.split(",")) {
+          item = item.trim();
+          if (item.length() == 0) continue;
+          int eq = item.lastIndexOf('=');
+          if (eq < 0) throw new IllegalArgumentException("routeMaxConnections entry needs =max: " + item);
+          String target = item.substring(0, eq).trim();
+          int max = Integer.parseInt(item.substring(eq + 1).trim());
+          if (target.indexOf("://") < 0) target = "https://" + target;
+          URL url;
+          try {
+             url = new URL(target);
+          } catch (MalformedURLException e) {
+             throw new IllegalArgumentException("bad routeMaxConnections host: " + item);
+          }
+          limits.put(routeFor(url), max);
+       }
+       return limits;
+    }
+
+    /**
+     * The route to a URL's host, keyed as the client plans it: direct, secure if https
+     */
+    private static HttpRoute routeFor(URL url) {
+       int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+       HttpHost host = new HttpHost(url.getHost(), port, url.getProtocol());
+       return new HttpRoute(host, null, "https".equals(url.getProtocol()));
+    }
+
+    /**
+     * Open warmupConnections pooled connections, with their TLS handshakes, to a base URL's
+     * host, then request warmupPath if set.  Connections already open are not reopened.
+     * warmupPath is requested once per data source, relative to the first base URL warmed up.
+     * Failures are logged and otherwise ignored.
+     *
+     * @param baseUrl the base URL
+     */
+    public void warmUp(String baseUrl) {
+       if (warmupConnections <= 0 || connectionManager == null) return;
+       long start = System.nanoTime();
+       HttpRoute route;
+       try {
+          route = routeFor(new URL(baseUrl));
+       } catch (MalformedURLException e) {
+          log.warn("HttpDataSource: cannot warm up {}: {}", baseUrl, e.toString());
+          return;
+       }
+       int n = Math.min(warmupConnections, connectionManager.getMaxPerRoute(route));
+       List<HttpClientConnection> conns = new ArrayList<HttpClientConnection>(n);
+       HttpClientContext context = HttpClientContext.create();
+       context.setAttribute(HANDSHAKE_COUNTER, this);
+       int opened = 0;
+       try {
+          // hold each connection until all are open, so each is a different one
+          for (int i = 0; i < n; i++) {
+             HttpClientConnection conn = connectionManager.requestConnection(route, null)
+                     .get(warmupTimeout, TimeUnit.MILLISECONDS);
+             conns.add(conn);
+             if (!conn.isOpen()) {
+                connectionManager.connect(conn, route, warmupTimeout, context);
+                connectionManager.routeComplete(conn, route, context);
+                opened++;
+             }
+          }
+       } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+       } catch (Exception e) {
+          log.warn("HttpDataSource: warm up of {} failed: {}", route.getTargetHost(), e.toString());
+       } finally {
+          for (HttpClientConnection conn : conns) {
+             connectionManager.releaseConnection(conn, null, 0, TimeUnit.MILLISECONDS);
+          }
+       }
+       log.info("HttpDataSource: opened {} connections to {} in {}ms", new Object[] {opened,
+               route.getTargetHost(), ResourceTiming.millis(System.nanoTime() - start)});
+
+       if (warmupPath != null && warmupPathRequested.compareAndSet(false, true)) {
+          warmupRequest(baseUrl + warmupPath, context);
+       }
+    }
+
+    /**
+     * Request a warm-up url, allowing warmupTimeout for each of the lease, the connect and
+     * each read.  The body is discarded.
+     *
+     * @param url the url
+     * @param context the warm-up context
+     */
+    private void warmupRequest(String url, HttpClientContext context) {
+       HttpGet httpget = new HttpGet(url);
+       if (acceptHeader != null) httpget.setHeader("Accept", acceptHeader);
+       httpget.setConfig(RequestConfig.custom()
+               .setConnectionRequestTimeout(warmupTimeout)
+               .setConnectTimeout(warmupTimeout)
+               .setSocketTimeout(warmupTimeout)
+               .build());
+       try {
+          CloseableHttpResponse response = httpClient.execute(httpget, context);
+          try {
+             EntityUtils.consume(response.getEntity());
+             log.info("HttpDataSource: warm up request {}: status {}", url,
+                     response.getStatusLine().getStatusCode());
+          } finally {
+             response.close();
+          }
+       } catch (IOException e) {
+          log.warn("HttpDataSource: warm up request {} failed: {}", url, e.toString());
+       }
+    }
+
+    /**
+     * Returns the connection pool's totals
+     *
+     * @return leased, pending, available and max connections
+     */
+    public PoolStats getPoolStats() {
+       return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Log the pool totals and the configured hosts' stats
+     */
+    private void logPoolStats() {
+       log.info("HttpDataSource pool{}: {}", sharedPool != null ? " " + sharedPool : "",
+               connectionManager.getTotalStats());
+       for (HttpRoute route : routeLimits.keySet()) {
+          log.info("HttpDataSource pool {}: {}", route.getTargetHost(), connectionManager.getStats(route));
+       }
+       long full = fullHandshakes.getAndSet(0);
+       long resumed = resumedHandshakes.getAndSet(0);
+       long shed = shedRequests.getAndSet(0);
+       if (shed > 0) log.info("HttpDataSource shed {} background requests", shed);
+       long nanos = handshakeNanos.getAndSet(0);
+       if (full + resumed > 0) {
+          log.info("HttpDataSource tls: full={} resumed={} avg={}ms", new Object[] {full, resumed,
+                  ResourceTiming.millis(nanos / (full + resumed))});
+       }
+    }
+
+    /**
+     * Context attribute holding the data source a request is made for, which counts the
+     * handshakes of connections opened for it.  A shared pool's connections are opened by
+     * one member's socket factory for every member's requests.
+     */
+    private static final String HANDSHAKE_COUNTER = HttpDataSource.class.getName() + ".handshakeCounter";
+
     /**
      * Each thread gets a context
      */
@@ -182,34 +625,232 @@ public class HttpDataSource {
         }
     };
 
+    /**
+     * Reads a whole body into a string
+     */
+    private static final ResponseReader<String> STRING_READER = new ResponseReader<String>() {
+        public String read(Reader content) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[4096];
+            int n;
+            while ((n = content.read(buf)) != -1) {
+                sb.append(buf, 0, n);
+            }
+            return sb.toString();
+        }
+    };
+
+    /**
+     * Pool lease time of the current thread's last request
+     */
+    private static final ThreadLocal<long[]> leaseTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
     /**
      * Retrieve a resource
      */
     public String getResource(String url) {
-       String content = null;
-       log.info("rws get: " + url);
+       return getResource(url, null);
+    }
+
+    /**
+     * Retrieve a resource, recording lease and network times
+     *
+     * @param url the resource
+     * @param timing receives the times, may be null
+     */
+    public String getResource(String url, ResourceTiming timing) {
+       try {
+           String content = getResource(url, timing, STRING_READER);
+           log.trace("content dump: {}", content);
+           return content;
+       } catch (Exception e) {
+           // already logged
+           return null;
+       }
+    }
+
+    /**
+     * Retrieve a resource, handing the body to a reader as it arrives.  If the reader stops
+     * early, or the body exceeds maxResponseSize, the connection is closed, not drained.
+     *
+     * @param url the resource
+     * @param timing receives the times, may be null
+     * @param reader consumes the body
+     * @return the reader's result, null if there was no body
+     * @throws IOException if the request fails or the reader fails
+     */
+    public <T> T getResource(String url, ResourceTiming timing, ResponseReader<T> reader) throws IOException {
+       T result = null;
+       log.debug("rws get: {}", url);
        HttpGet httpget = new HttpGet(url);
        // parameterize this ( by this request? )
-       log.info(acceptHeader);
        if (acceptHeader != null) httpget.setHeader("Accept", acceptHeader);
+       long[] lease = leaseTime.get();
+       lease[0] = 0;
+       long size = 0;
+       int status = 0;
+       StringBuilder body = capture != null && capture.isCapturingBodies() ? new StringBuilder() : null;
+       if (admission != null) admit(url, timing);
+       long startMillis = System.currentTimeMillis();
+       long start = System.nanoTime();
        try {
-          CloseableHttpResponse response = httpClient.execute(httpget, clientContext.get());
+          HttpClientContext context = clientContext.get();
+          context.setAttribute(HANDSHAKE_COUNTER, this);
+          CloseableHttpResponse response = httpClient.execute(httpget, context);
           try {
               int sc = response.getStatusLine().getStatusCode();
-              log.info("status: " + sc);
+              status = sc;
+              log.debug("status: {}", sc);
+              if (timing != null) {
+                  timing.statusCode = sc;
+                  timing.freshness = getFreshness(response);
+              }
               HttpEntity entity = response.getEntity();
               if (entity != null) {
-                  content = EntityUtils.toString(entity);
-                  log.trace("content dump:");
-                  log.trace(content);
+                  long length = entity.getContentLength();
+                  if (maxResponseSize > 0 && length > maxResponseSize) {
+                      throw new IOException("response of " + length + " bytes exceeds maxResponseSize");
+                  }
+                  Charset charset = defaultCharset(ContentType.getOrDefault(entity), reader);
+                  LimitedInputStream in = new LimitedInputStream(entity.getContent(), maxResponseSize);
+                  try {
+                      Reader content = new InputStreamReader(in, charset);
+                      if (body != null) content = TrafficCapture.tee(content, body);
+                      result = reader.read(content);
+                  } finally {
+                      size = in.getCount();
+                  }
               }
           } finally {
+              // releases the connection if the body was read to the end, otherwise closes it
               response.close();
           }
-       }  catch (Exception e) {
-           log.error("rws get error: " + e);
+       } catch (IOException e) {
+           logError(url, e);
+           throw e;
+       } catch (RuntimeException e) {
+           logError(url, e);
+           throw e;
+       } finally {
+           if (admission != null) admission.release();
+           long elapsed = System.nanoTime() - start;
+           if (capture != null) capture.record(startMillis, elapsed, status, url, body);
+           statistics.recordRequest(elapsed, size);
+           if (statistics.logSummaryIfDue(log)) logPoolStats();
+           if (timing != null) {
+               timing.leaseTime = lease[0];
+               timing.networkTime = elapsed - lease[0];
+               timing.responseSize = size;
+           }
+       }
+       return result;
+    }
+
+    /**
+     * The charset of a response body: the one the response names, otherwise UTF-8 for JSON,
+     * by content type or reader, and ISO-8859-1, the HTTP default, for other text.
+     */
+    static Charset defaultCharset(ContentType contentType, ResponseReader<?> reader) {
+       if (contentType.getCharset() != null) return contentType.getCharset();
+       String mimeType = contentType.getMimeType();
+       if (reader instanceof JsonResponseReader || (mimeType != null && mimeType.toLowerCase().contains("json"))) {
+          return Consts.UTF_8;
+       }
+       return Consts.ISO_8859_1;
+    }
+
+    /**
+     * Wait for admission.  Background requests wait while interactive ones do, and are
+     * shed after shedAfter milliseconds.  Interactive requests wait at most
+     * connectionRequestTimeout, as they would for a pooled connection.
+     *
+     * @throws IOException if the request is shed, times out or is interrupted
+     */
+    private void admit(String url, ResourceTiming timing) throws IOException {
+       PRIORITY priority = timing != null ? timing.priority : PRIORITY.INTERACTIVE;
+       boolean background = priority == PRIORITY.BACKGROUND;
+       long start = System.nanoTime();
+       boolean admitted;
+       try {
+          admitted = admission.acquire(priority, background ? shedAfter : connectionRequestTimeout);
+       } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("interrupted waiting for admission");
+       }
+       if (timing != null) timing.queueTime += System.nanoTime() - start;
+       if (!admitted) {
+          if (background) {
+             shedRequests.incrementAndGet();
+             log.debug("rws get shed: {}", url);
+             throw new IOException("background request shed after " + shedAfter + "ms");
+          }
+          throw new IOException("timed out after " + connectionRequestTimeout + "ms waiting for admission");
+       }
+    }
+
+    /**
+     * How long a response stays fresh, per its Cache-Control (s-maxage or max-age), or
+     * Expires and Date, headers, less its Age.
+     *
+     * @param response the response
+     * @return milliseconds, 0 if it must not be reused, -1 if the headers do not say
+     */
+    static long getFreshness(HttpResponse response) {
+       long maxAge = -1;
+       long sharedMaxAge = -1;
+       for (Header header : response.getHeaders("Cache-Control")) {
+          for (HeaderElement element : header.getElements()) {
+             String name = element.getName().toLowerCase();
+             if ("no-store".equals(name) || "no-cache".equals(name) || "private".equals(name)) return 0;
+             if ("max-age".equals(name)) maxAge = parseSeconds(element.getValue());
+             if ("s-maxage".equals(name)) sharedMaxAge = parseSeconds(element.getValue());
+          }
+       }
+       long freshness;
+       if (sharedMaxAge >= 0) {
+          freshness = sharedMaxAge * 1000;
+       } else if (maxAge >= 0) {
+          freshness = maxAge * 1000;
+       } else {
+          Header expiresHeader = response.getFirstHeader("Expires");
+          if (expiresHeader == null) return -1;
+          Date expires = DateUtils.parseDate(expiresHeader.getValue());
+          if (expires == null) return 0;
+          Header dateHeader = response.getFirstHeader("Date");
+          Date date = dateHeader != null ? DateUtils.parseDate(dateHeader.getValue()) : null;
+          freshness = expires.getTime() - (date != null ? date.getTime() : System.currentTimeMillis());
+       }
+       Header age = response.getFirstHeader("Age");
+       if (age != null) {
+          long seconds = parseSeconds(age.getValue());
+          if (seconds > 0) freshness -= seconds * 1000;
+       }
+       return Math.max(0, freshness);
+    }
+
+    /**
+     * Parse a delta-seconds header value, -1 if not valid
+     */
+    private static long parseSeconds(String value) {
+       if (value == null) return -1;
+       try {
+          return Math.max(0, Long.parseLong(value.trim()));
+       } catch (NumberFormatException e) {
+          return -1;
        }
-       return content;
+    }
+
+    /**
+     * Log a request error, sampled
+     */
+    private void logError(String url, Exception e) {
+       if (statistics.recordError()) log.error("rws get error: {}: {}", url, e.toString());
+       else log.debug("rws get error: {}: {}", url, e.toString());
     }
 
 
@@ -226,7 +867,7 @@ public class HttpDataSource {
               KeyStore trustStore;
               int cn = 0;
 
-              log.info("Setting x509 trust from " + caCertificateFile);
+              log.info("Setting x509 trust from {}", caCertificateFile);
 
               TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
               CertificateFactory cf = CertificateFactory.getInstance("X.509");
@@ -239,8 +880,7 @@ public class HttpDataSource {
               Iterator cit = certs.iterator();
               while (cit.hasNext()) {
                  X509Certificate cert = (X509Certificate) cit.next();
-                 log.info(" adding " + cert.getSubjectX500Principal().toString());
-                 System.out.println(" adding " + cert.getSubjectX500Principal().toString());
+                 log.debug(" adding {}", cert.getSubjectX500Principal());
                  trustStore.setCertificateEntry("CACERT" + cn, cert);
                  cn += 1;
               }
@@ -273,7 +913,7 @@ public class HttpDataSource {
                CertificateFactory cf = CertificateFactory.getInstance("X.509");
                X509Certificate cert = (X509Certificate) cf.generateCertificate(in);
                PKCS1 pkcs = new PKCS1();
-               log.info("reading key file: " + keyFile);
+               log.info("reading key file: {}", keyFile);
                PrivateKey key = pkcs.readKey(keyFile);
 
                X509Certificate[] chain = new X509Certificate[1];
@@ -286,21 +926,29 @@ public class HttpDataSource {
            /* socket factory */
 
            SSLContext ctx = SSLContext.getInstance("TLS");
+           for (int i = 0; i < trustManagers.length; i++) {
+              if (trustManagers[i] instanceof X509TrustManager) {
+                 trustManagers[i] = new MeteredTrustManager((X509TrustManager) trustManagers[i]);
+              }
+           }
            ctx.init(keyManagers, trustManagers, null);
-           return new SSLConnectionSocketFactory(ctx);
+           SSLSessionContext sessions = ctx.getClientSessionContext();
+           if (sessionCacheSize >= 0) sessions.setSessionCacheSize(sessionCacheSize);
+           if (sessionTimeout >= 0) sessions.setSessionTimeout(sessionTimeout);
+           return new MeteredSocketFactory(ctx, splitList(tlsProtocols), splitList(tlsCipherSuites));
 
         } catch (IOException e) {
-           log.error("error reading cert or key error: " + e);
+           log.error("error reading cert or key error: {}", e.toString());
         } catch (KeyStoreException e) {
-           log.error("keystore error: " + e);
+           log.error("keystore error: {}", e.toString());
         } catch (NoSuchAlgorithmException e) {
-           log.error("sf error: " + e);
+           log.error("sf error: {}", e.toString());
         } catch (KeyManagementException e) {
-           log.error("sf error: " + e);
+           log.error("sf error: {}", e.toString());
         } catch (CertificateException e) {
-           log.error("sf error: " + e);
+           log.error("sf error: {}", e.toString());
         } catch (UnrecoverableKeyException e) {
-           log.error("sf error: " + e);
+           log.error("sf error: {}", e.toString());
         }
 
         return null;
@@ -308,6 +956,20 @@ public class HttpDataSource {
     }
 
 
+    /**
+     * Split a comma separated list
+     *
+     * @return the items, or null if there are none
+     */
+    private static String[] splitList(String s) {
+        if (s == null) return null;
+        List<String> items = new ArrayList<String>();
+        for (String item : s.split(",")) {
+            if (item.trim().length() > 0) items.add(item.trim());
+        }
+        return items.isEmpty() ? null : items.toArray(new String[items.size()]);
+    }
+
     /** Bean property setters */
 
     /**
@@ -357,6 +1019,212 @@ public class HttpDataSource {
         maxConnections = i;
     }
 
+    /**
+     * This sets the maximum connections to any one host.  A value of 0 uses
+     * maxConnections.
+     *
+     * @param i <code>int</code> max connections per host
+     */
+    public void setMaxConnectionsPerRoute(int i) {
+        maxConnectionsPerRoute = i;
+    }
+
+    /**
+     * This sets the maximum connections to particular hosts, as a comma separated
+     * list of <code>[scheme://]host[:port]=max</code>, e.g. "iam-ws.u.washington.edu:7443=5".
+     *
+     * @param s <code>String</code> per host limits
+     */
+    public void setRouteMaxConnections(String s) {
+        routeMaxConnections = s;
+    }
+
+    /**
+     * This sets how many connections are opened to each base URL when a connector
+     * starts, so the first resolutions need no connect or TLS handshake.  A value of 0
+     * disables warm-up.
+     *
+     * @param i <code>int</code> connections
+     */
+    public void setWarmupConnections(int i) {
+        warmupConnections = i;
+    }
+
+    /**
+     * This sets a path, relative to the base URL, requested once after warm-up,
+     * e.g. a health check.  Only the first connector to warm up requests it.
+     *
+     * @param s <code>String</code> path
+     */
+    public void setWarmupPath(String s) {
+        warmupPath = s;
+    }
+
+    /**
+     * This sets the time allowed to lease and connect each warm-up connection, and
+     * for each stage of the warm-up request.
+     *
+     * @param i <code>int</code> milliseconds
+     */
+    public void setWarmupTimeout(int i) {
+        warmupTimeout = i;
+    }
+
+    /**
+     * This sets the number of TLS sessions cached for resumption.
+     *
+     * @param i <code>int</code> sessions, 0 is unlimited
+     */
+    public void setSessionCacheSize(int i) {
+        sessionCacheSize = i;
+    }
+
+    /**
+     * This sets how long a cached TLS session may be resumed.
+     *
+     * @param i <code>int</code> seconds, 0 is unlimited
+     */
+    public void setSessionTimeout(int i) {
+        sessionTimeout = i;
+    }
+
+    /**
+     * This sets the TLS protocols, comma separated, e.g. "TLSv1.2".
+     *
+     * @param s <code>String</code> protocols
+     */
+    public void setTlsProtocols(String s) {
+        tlsProtocols = s;
+    }
+
+    /**
+     * This sets the TLS cipher suites, comma separated, in order of preference.
+     *
+     * @param s <code>String</code> cipher suites
+     */
+    public void setTlsCipherSuites(String s) {
+        tlsCipherSuites = s;
+    }
+
+    /**
+     * This sets how often the certificate, key and CA files are checked for changes.
+     * Changed files are loaded for new connections, and connections opened with the old
+     * ones are closed once idle.  A value of 0 disables the check.
+     *
+     * @param i <code>long</code> milliseconds
+     */
+    public void setCredentialCheckInterval(long i) {
+        credentialCheckInterval = i;
+    }
+
+    /**
+     * This names a connection pool shared with other data sources of the same name
+     * and TLS configuration.
+     *
+     * @param s <code>String</code> pool name
+     */
+    public void setSharedPool(String s) {
+        sharedPool = s;
+    }
+
+    /**
+     * This sets the resolver of host names for new connections, e.g. a
+     * {@link CachingDnsResolver}.  The default is the JVM's.
+     *
+     * @param r <code>DnsResolver</code>
+     */
+    public void setDnsResolver(DnsResolver r) {
+        dnsResolver = r;
+    }
+
+    /**
+     * This sets whether requests are admitted by priority: at most maxConnections at once,
+     * interactive requests first.
+     *
+     * @param b <code>boolean</code>
+     */
+    public void setAdmissionControl(boolean b) {
+        admissionControl = b;
+    }
+
+    /**
+     * This sets how long, in milliseconds, a background request waits for admission
+     * before it is shed.
+     *
+     * @param l <code>long</code> milliseconds
+     */
+    public void setShedAfter(long l) {
+        shedAfter = l;
+    }
+
+    /**
+     * This sets how long, in milliseconds, a request waits for a pooled connection, and
+     * an interactive request for admission, before it fails.
+     *
+     * @param i <code>int</code> milliseconds, 0 waits indefinitely
+     */
+    public void setConnectionRequestTimeout(int i) {
+        connectionRequestTimeout = i;
+    }
+
+    /**
+     * This sets the file to which each request, its url, start time, elapsed time and
+     * status, is appended for later replay.  Null, the default, captures nothing.
+     *
+     * @param s <code>String</code> file name
+     */
+    public void setCaptureFile(String s) {
+        captureFile = s;
+    }
+
+    /**
+     * This sets whether response bodies are captured too.
+     *
+     * @param b <code>boolean</code>
+     */
+    public void setCaptureBodies(boolean b) {
+        captureBodies = b;
+    }
+
+    /**
+     * This sets a pattern, e.g. of user names, replaced in captured urls and bodies by a
+     * token derived from the matched text.
+     *
+     * @param s <code>String</code> regular expression
+     */
+    public void setCaptureRedact(String s) {
+        captureRedact = s;
+    }
+
+    /**
+     * This sets the largest response body, in bytes, that will be read.  Larger
+     * responses are abandoned and their connection closed.  A value of 0 is unlimited.
+     *
+     * @param i <code>long</code> bytes
+     */
+    public void setMaxResponseSize(long i) {
+        maxResponseSize = i;
+    }
+
+    /**
+     * This sets the interval between the periodic request summaries logged at INFO.
+     * A value of 0 disables the summary.
+     *
+     * @param i <code>long</code> milliseconds
+     */
+    public void setSummaryInterval(long i) {
+        summaryInterval = i;
+    }
+
+    /**
+     * Returns the accept header
+     *
+     * @return the accept header, may be null
+     */
+    public String getAcceptHeader() {
+        return acceptHeader;
+    }
+
     /**
      * This sets the accept header
      * 
@@ -384,7 +1252,372 @@ public class HttpDataSource {
         password = p;
     }
 
+    /**
+     * Stream that counts bytes read and fails past a limit
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        private void add(long n) throws IOException {
+            if (n > 0) count += n;
+            if (limit > 0 && count > limit) {
+                throw new IOException("response exceeds maxResponseSize of " + limit + " bytes");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c != -1) add(1);
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            add(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            add(skipped);
+            return skipped;
+        }
+    }
+
+    /**
+     * Connection manager that records how long each pool lease waited
+     */
+    private static class TimedConnectionManager extends PoolingHttpClientConnectionManager {
+
+        /** the https socket factory, which knows the connections opened with old credentials */
+        private final ReloadableSocketFactory socketFactory;
+
+        TimedConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry, DnsResolver dnsResolver,
+                ReloadableSocketFactory socketFactory) {
+            super(socketFactoryRegistry, dnsResolver);
+            this.socketFactory = socketFactory;
+        }
+
+        /**
+         * Close, rather than pool, a connection opened with credentials since replaced.
+         */
+        @Override
+        public void releaseConnection(final HttpClientConnection conn, final Object state, final long keepalive,
+                final TimeUnit tunit) {
+            if (socketFactory.isStale(conn)) {
+                try {
+                    conn.close();
+                } catch (IOException e) {
+                    // released anyway, and not reused
+                }
+            }
+            super.releaseConnection(conn, state, keepalive, tunit);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+            final ConnectionRequest request = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                public HttpClientConnection get(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return request.get(timeout, tunit);
+                    } finally {
+                        leaseTime.get()[0] += System.nanoTime() - start;
+                    }
+                }
+
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+    }
+
+    /**
+     * Count a handshake
+     *
+     * @param nanos its time
+     * @param resumed whether a session was resumed
+     */
+    private void countHandshake(long nanos, boolean resumed) {
+       handshakeNanos.addAndGet(nanos);
+       if (resumed) {
+          resumedHandshakes.incrementAndGet();
+       } else {
+          fullHandshakes.incrementAndGet();
+       }
+    }
+
+    /**
+     * Socket factory that counts full and resumed handshakes and their time, for the data
+     * source the connection is opened for, or else the one that created the factory
+     */
+    private class MeteredSocketFactory extends SSLConnectionSocketFactory {
+
+        MeteredSocketFactory(SSLContext ctx, String[] protocols, String[] cipherSuites) {
+            super(ctx, protocols, cipherSuites, SSLConnectionSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER);
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+                throws IOException {
+            boolean[] checked = certificateChecked.get();
+            checked[0] = false;
+            long start = System.nanoTime();
+            Socket sock = super.createLayeredSocket(socket, target, port, context);
+            long nanos = System.nanoTime() - start;
+            if (sock instanceof SSLSocket) {
+                Object counter = context != null ? context.getAttribute(HANDSHAKE_COUNTER) : null;
+                HttpDataSource dataSource = counter instanceof HttpDataSource ? (HttpDataSource) counter
+                        : HttpDataSource.this;
+                // a resumed handshake does not check the server certificate again
+                dataSource.countHandshake(nanos, !checked[0]);
+            }
+            return sock;
+        }
+    }
+
+    /**
+     * Set when the server certificate is checked during the handshake on this thread.  The
+     * handshake runs on the thread opening the connection.
+     */
+    private static final ThreadLocal<boolean[]> certificateChecked = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[1];
+        }
+    };
+
+    /**
+     * Trust manager that notes when it checks a server certificate, which a full handshake
+     * does and a resumed one, TLS 1.2 or 1.3, does not.  Session ids and instances can not
+     * tell them apart: a TLS 1.3 resumption gets a new session with a new id.
+     */
+    private static class MeteredTrustManager extends X509ExtendedTrustManager {
+
+        private final X509TrustManager delegate;
+
+        MeteredTrustManager(X509TrustManager delegate) {
+            this.delegate = delegate;
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            certificateChecked.get()[0] = true;
+            if (delegate instanceof X509ExtendedTrustManager) {
+                ((X509ExtendedTrustManager) delegate).checkServerTrusted(chain, authType, socket);
+            } else {
+                delegate.checkServerTrusted(chain, authType);
+            }
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            certificateChecked.get()[0] = true;
+            if (delegate instanceof X509ExtendedTrustManager) {
+                ((X509ExtendedTrustManager) delegate).checkServerTrusted(chain, authType, engine);
+            } else {
+                delegate.checkServerTrusted(chain, authType);
+            }
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            certificateChecked.get()[0] = true;
+            delegate.checkServerTrusted(chain, authType);
+        }
+
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            if (delegate instanceof X509ExtendedTrustManager) {
+                ((X509ExtendedTrustManager) delegate).checkClientTrusted(chain, authType, socket);
+            } else {
+                delegate.checkClientTrusted(chain, authType);
+            }
+        }
+
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            if (delegate instanceof X509ExtendedTrustManager) {
+                ((X509ExtendedTrustManager) delegate).checkClientTrusted(chain, authType, engine);
+            } else {
+                delegate.checkClientTrusted(chain, authType);
+            }
+        }
+
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            delegate.checkClientTrusted(chain, authType);
+        }
+
+        public X509Certificate[] getAcceptedIssuers() {
+            return delegate.getAcceptedIssuers();
+        }
+    }
+
+    /**
+     * Socket factory that delegates to a TLS socket factory which may be replaced.  Each
+     * socket is tagged with the generation of the delegate that opened it, so connections
+     * opened before a replacement can be told apart and retired.
+     */
+    private static class ReloadableSocketFactory implements LayeredConnectionSocketFactory {
+
+        private volatile SSLConnectionSocketFactory delegate;
+
+        /** incremented after each replacement */
+        private volatile int generation;
+
+        /** the generation each open socket was created in */
+        private final Map<Socket, Integer> generations =
+                Collections.synchronizedMap(new WeakHashMap<Socket, Integer>());
+
+        ReloadableSocketFactory(SSLConnectionSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        synchronized void setDelegate(SSLConnectionSocketFactory sf) {
+            delegate = sf;
+            generation++;
+        }
+
+        /**
+         * Whether a connection's socket was opened by a replaced delegate.
+         */
+        boolean isStale(HttpClientConnection conn) {
+            if (!(conn instanceof ManagedHttpClientConnection)) return false;
+            Socket socket;
+            try {
+                socket = ((ManagedHttpClientConnection) conn).getSocket();
+            } catch (RuntimeException e) {
+                // already shut down
+                return false;
+            }
+            Integer opened = socket != null ? generations.get(socket) : null;
+            return opened != null && opened.intValue() != generation;
+        }
+
+        /**
+         * Tag a socket.  The generation is read before the delegate, so a socket opened
+         * during a replacement is at worst taken for an old one.
+         */
+        private Socket tag(Socket socket, int opened) {
+            if (socket != null) generations.put(socket, opened);
+            return socket;
+        }
+
+        public Socket createSocket(HttpContext context) throws IOException {
+            return delegate.createSocket(context);
+        }
+
+        public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+                InetSocketAddress localAddress, HttpContext context) throws IOException {
+            int opened = generation;
+            return tag(delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context),
+                    opened);
+        }
+
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+                throws IOException {
+            int opened = generation;
+            return tag(delegate.createLayeredSocket(socket, target, port, context), opened);
+        }
+    }
+
+    /**
+     * Request permits, granted to interactive requests before background ones
+     */
+    static class AdmissionGate {
+        private int available;
+        private int interactiveWaiting;
+
+        AdmissionGate(int permits) {
+            available = permits;
+        }
+
+        /**
+         * Take a permit, interactive requests first.
+         *
+         * @param timeout milliseconds, 0 waits indefinitely
+         * @return whether a permit was taken
+         */
+        synchronized boolean acquire(PRIORITY priority, long timeout) throws InterruptedException {
+            boolean interactive = priority == PRIORITY.INTERACTIVE;
+            long deadline = System.currentTimeMillis() + timeout;
+            if (interactive) interactiveWaiting++;
+            try {
+                while (available == 0 || (!interactive && interactiveWaiting > 0)) {
+                    if (timeout <= 0) {
+                        wait();
+                    } else {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) return false;
+                        wait(remaining);
+                    }
+                }
+                available--;
+                return true;
+            } finally {
+                // background requests held back by this one may now go
+                if (interactive && --interactiveWaiting == 0) notifyAll();
+            }
+        }
+
+        synchronized void release() {
+            available++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * A connection manager, its credential watch and the number of data sources using it
+     */
+    private static class SharedPool {
+        final PoolingHttpClientConnectionManager manager;
+        final ScheduledExecutorService credentialWatch;
+        int references;
+
+        SharedPool(PoolingHttpClientConnectionManager manager, ScheduledExecutorService credentialWatch) {
+            this.manager = manager;
+            this.credentialWatch = credentialWatch;
+        }
+    }
+
     public synchronized void close() {
+       if (capture != null) {
+          capture.close();
+          capture = null;
+       }
+       if (connectionManager == null) return;
+       if (sharedPoolKey != null) {
+          synchronized (sharedPools) {
+             SharedPool pool = sharedPools.get(sharedPoolKey);
+             if (pool != null && --pool.references == 0) {
+                sharedPools.remove(sharedPoolKey);
+                pool.manager.shutdown();
+                if (pool.credentialWatch != null) pool.credentialWatch.shutdownNow();
+             }
+          }
+          sharedPoolKey = null;
+       } else {
+          connectionManager.shutdown();
+          if (credentialWatch != null) credentialWatch.shutdownNow();
+       }
+       connectionManager = null;
+       credentialWatch = null;
     }
 
     private void clearCache() {
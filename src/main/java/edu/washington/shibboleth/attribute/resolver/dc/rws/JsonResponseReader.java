@@ -0,0 +1,44 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * <code>JsonResponseReader</code> is a {@link ResponseReader} of JSON.  JSON is UTF-8 (RFC 8259),
+ * so the data source decodes its body as UTF-8 when the response names no charset, whatever
+ * its content type.
+ *
+ * @param <T> the result type
+ */
+public abstract class JsonResponseReader<T> implements ResponseReader<T> {
+
+    /** Reads the whole body as text */
+    public static final JsonResponseReader<String> TEXT = new JsonResponseReader<String>() {
+        public String read(Reader content) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[4096];
+            int n;
+            while ((n = content.read(buf)) != -1) {
+                sb.append(buf, 0, n);
+            }
+            return sb.toString();
+        }
+    };
+}
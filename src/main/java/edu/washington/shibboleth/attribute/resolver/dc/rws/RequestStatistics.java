@@ -0,0 +1,115 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+/**
+ * <code>RequestStatistics</code> aggregates request counts and times so they can be
+ * logged as a periodic summary rather than one line per request.
+ *
+ * Errors are sampled: the first error of each interval is logged in full, the rest are
+ * only counted.  The error interval runs on its own, so sampling does not depend on the
+ * summary being logged.  With no interval every error is logged in full.
+ */
+public class RequestStatistics {
+
+    /** name used in the summary line */
+    private final String name;
+
+    /** summary interval in milliseconds, 0 disables the summary */
+    private final long interval;
+
+    /** when the next summary is due */
+    private final AtomicLong nextSummary;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /** when the current error sampling interval ends */
+    private final AtomicLong errorWindowEnd = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param name name used in the summary line
+     * @param interval summary interval in milliseconds
+     */
+    public RequestStatistics(String name, long interval) {
+        this.name = name;
+        this.interval = interval;
+        nextSummary = new AtomicLong(System.currentTimeMillis() + interval);
+    }
+
+    /**
+     * Record a completed request.
+     *
+     * @param nanos elapsed time
+     * @param size response size
+     */
+    public void recordRequest(long nanos, long size) {
+        requests.incrementAndGet();
+        bytes.addAndGet(size);
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Record a failed request.
+     *
+     * @return true if this error should be logged in full
+     */
+    public boolean recordError() {
+        errors.incrementAndGet();
+        if (interval <= 0) return true;
+        long now = System.currentTimeMillis();
+        long end = errorWindowEnd.get();
+        return now >= end && errorWindowEnd.compareAndSet(end, now + interval);
+    }
+
+    /**
+     * Log the summary, at INFO, if the interval has elapsed.  Only one caller wins.
+     *
+     * @param log where to log
+     * @return true if the interval had elapsed and this caller won
+     */
+    public boolean logSummaryIfDue(Logger log) {
+        if (interval <= 0) return false;
+        long now = System.currentTimeMillis();
+        long due = nextSummary.get();
+        if (now < due || !nextSummary.compareAndSet(due, now + interval)) return false;
+
+        long n = requests.getAndSet(0);
+        long e = errors.getAndSet(0);
+        long b = bytes.getAndSet(0);
+        long t = totalNanos.getAndSet(0);
+        long m = maxNanos.getAndSet(0);
+        if (n == 0 && e == 0) return false;
+        log.info("{} summary: requests={} errors={} bytes={} avg={}ms max={}ms",
+                new Object[] {name, n, e, b, ResourceTiming.millis(n > 0 ? t / n : 0), ResourceTiming.millis(m)});
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+/**
+ * <code>ResourceTiming</code> collects the per-phase times of one resolution, and carries
+ * its priority to the data source.
+ *
+ * All times are in nanoseconds.  An instance is used by a single thread.
+ */
+public class ResourceTiming {
+
+    /** time spent rendering the query template */
+    public long renderTime;
+
+    /** priority of the request */
+    public HttpDataSource.PRIORITY priority = HttpDataSource.PRIORITY.INTERACTIVE;
+
+    /** time spent waiting for a thread, or admission, to make the call */
+    public long queueTime;
+
+    /** time spent waiting for a pooled connection */
+    public long leaseTime;
+
+    /**
+     * time spent on the wire, excluding the lease.  Streamed responses are
+     * parsed as they are read, so this includes their parse time.
+     */
+    public long networkTime;
+
+    /** time spent parsing the response */
+    public long parseTime;
+
+    /** time spent evaluating the attribute xpaths */
+    public long xpathTime;
+
+    /** response size in bytes */
+    public long responseSize;
+
+    /** http status code */
+    public int statusCode;
+
+    /**
+     * milliseconds the response stays fresh, from its Cache-Control, Expires and Age
+     * headers.  0 if it must not be reused, -1 if the headers do not say.
+     */
+    public long freshness = -1;
+
+    /**
+     * Add another request's times and size, e.g. of a further page.
+     */
+    public void add(ResourceTiming other) {
+        renderTime += other.renderTime;
+        queueTime += other.queueTime;
+        leaseTime += other.leaseTime;
+        networkTime += other.networkTime;
+        parseTime += other.parseTime;
+        xpathTime += other.xpathTime;
+        responseSize += other.responseSize;
+        statusCode = other.statusCode;
+        if (other.freshness >= 0 && (freshness < 0 || other.freshness < freshness)) freshness = other.freshness;
+    }
+
+    /**
+     * Total of all phases.
+     */
+    public long getTotalTime() {
+        return renderTime + queueTime + leaseTime + networkTime + parseTime + xpathTime;
+    }
+
+    /**
+     * Convert nanoseconds to (fractional) milliseconds for logging.
+     */
+    public static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1000000.0);
+    }
+}
@@ -0,0 +1,41 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * <code>ResponseReader</code> consumes a response body as it arrives.
+ *
+ * A reader may stop before the end of the body; the data source then closes the
+ * connection rather than draining the rest.
+ *
+ * @param <T> the result type
+ */
+public interface ResponseReader<T> {
+
+    /**
+     * Read the response body.
+     *
+     * @param content the body, decoded with the response charset
+     * @return the result
+     * @throws IOException if the body can not be read or is not acceptable
+     */
+    T read(Reader content) throws IOException;
+}
@@ -0,0 +1,293 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>TrafficCapture</code> appends a record of each web service request to a file, for
+ * replay on another machine.
+ *
+ * A record is one line of tab separated fields: start time (epoch milliseconds), elapsed
+ * nanoseconds, status code, url and body, or a bare - if there is no body.  Tabs, newlines
+ * and backslashes in the url and body are escaped with backslashes, as is a - starting a
+ * body, so a body is never read back as the bare -.
+ *
+ * Text matching the redact pattern, e.g. user names, is replaced in the url and body by an
+ * HMAC of it keyed with a secret random to each capture, so one user still maps to one
+ * token but the token can not be reversed by hashing guesses.
+ */
+public class TrafficCapture {
+
+    /** Class logger. */
+    private static Logger log = LoggerFactory.getLogger(TrafficCapture.class);
+
+    /** the file */
+    private final Writer out;
+
+    /** whether bodies are written */
+    private final boolean bodies;
+
+    /** text to replace, null if none */
+    private final Pattern redact;
+
+    /** per thread HMACs keyed with this capture's secret, null if nothing is redacted */
+    private final ThreadLocal<Mac> macs;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Open a capture file for append.
+     *
+     * @param file the file
+     * @param bodies whether bodies are written
+     * @param redact text to replace, null if none
+     * @throws IOException if the file can not be opened
+     */
+    public TrafficCapture(String file, boolean bodies, String redact) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        this.bodies = bodies;
+        this.redact = redact != null ? Pattern.compile(redact) : null;
+        if (redact == null) {
+            macs = null;
+            return;
+        }
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        final SecretKeySpec key = new SecretKeySpec(secret, MAC_ALGORITHM);
+        macs = new ThreadLocal<Mac>() {
+            @Override protected Mac initialValue() {
+                try {
+                    Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                    mac.init(key);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("traffic capture: " + e.toString());
+                }
+            }
+        };
+    }
+
+    /**
+     * Whether bodies are written.
+     */
+    public boolean isCapturingBodies() {
+        return bodies;
+    }
+
+    /**
+     * Wrap a body reader so that what is read is kept in a buffer.
+     *
+     * @param in the body
+     * @param body receives what is read
+     * @return the wrapped reader
+     */
+    public static Reader tee(final Reader in, final StringBuilder body) {
+        return new Reader() {
+            public int read(char[] buf, int off, int len) throws IOException {
+                int n = in.read(buf, off, len);
+                if (n > 0) body.append(buf, off, n);
+                return n;
+            }
+
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+
+    /**
+     * Append a record.  Failures are logged, not thrown.
+     *
+     * @param start start time, epoch milliseconds
+     * @param nanos elapsed time
+     * @param status http status, 0 if there was no response
+     * @param url the url
+     * @param body what was read of the body, null if none
+     */
+    public void record(long start, long nanos, int status, String url, CharSequence body) {
+        StringBuilder sb = new StringBuilder(url.length() + (body != null ? body.length() : 0) + 64);
+        sb.append(start).append('\t').append(nanos).append('\t').append(status).append('\t');
+        escape(sb, redact(url));
+        sb.append('\t');
+        if (bodies && body != null) {
+            String s = redact(body.toString());
+            if (s.startsWith("-")) sb.append('\\');
+            escape(sb, s);
+        } else {
+            sb.append('-');
+        }
+        sb.append('\n');
+        synchronized (out) {
+            try {
+                out.write(sb.toString());
+                out.flush();
+            } catch (IOException e) {
+                log.error("traffic capture: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * Close the file.
+     */
+    public void close() {
+        synchronized (out) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.error("traffic capture: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * Replace the redacted text
+     */
+    private String redact(String s) {
+        if (redact == null) return s;
+        Matcher m = redact.matcher(s);
+        if (!m.find()) return s;
+        StringBuffer sb = new StringBuffer(s.length());
+        do {
+            m.appendReplacement(sb, token(m.group()));
+        } while (m.find());
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * The token of redacted text: r and the first 64 bits of its HMAC, in hex
+     */
+    private String token(String s) {
+        byte[] mac = macs.get().doFinal(s.getBytes(UTF8));
+        StringBuilder sb = new StringBuilder(17);
+        sb.append('r');
+        for (int i = 0; i < 8; i++) {
+            sb.append(Character.forDigit((mac[i] >> 4) & 0xf, 16)).append(Character.forDigit(mac[i] & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void escape(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) return s;
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                if (c == 't') c = '\t';
+                else if (c == 'n') c = '\n';
+                else if (c == 'r') c = '\r';
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Read a capture file.
+     *
+     * @param file the file
+     * @return the records, in file order
+     * @throws IOException if the file can not be read or a record is malformed
+     */
+    public static List<Record> read(String file) throws IOException {
+        List<Record> records = new ArrayList<Record>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            int n = 0;
+            while ((line = in.readLine()) != null) {
+                n++;
+                if (line.length() == 0) continue;
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5) throw new IOException(file + ":" + n + ": expected 5 fields");
+                try {
+                    records.add(new Record(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Integer.parseInt(fields[2]), unescape(fields[3]),
+                            "-".equals(fields[4]) ? null : unescape(fields[4])));
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + n + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+
+    /**
+     * One captured request.
+     */
+    public static class Record {
+        /** start time, epoch milliseconds */
+        public final long start;
+        /** elapsed nanoseconds */
+        public final long nanos;
+        /** http status, 0 if there was no response */
+        public final int status;
+        public final String url;
+        /** the body, null if not captured */
+        public final String body;
+
+        public Record(long start, long nanos, int status, String url, String body) {
+            this.start = start;
+            this.nanos = nanos;
+            this.status = status;
+            this.url = url;
+            this.body = body;
+        }
+    }
+}
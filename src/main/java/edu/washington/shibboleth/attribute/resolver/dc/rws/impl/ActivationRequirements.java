@@ -0,0 +1,236 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Predicate;
+
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.utilities.java.support.component.AbstractInitializableComponent;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * <code>ActivationRequirements</code> is the activation condition of a connector: true for
+ * the relying parties it serves, given directly and listed in files.  Set as the connector's
+ * activationCondition, the resolver skips the connector for other relying parties.
+ *
+ * All of them are merged into one set, so a check is a single hash lookup.  The files,
+ * one entity id per line with # comments, are checked for changes in the background and
+ * the set replaced when they change.
+ */
+public class ActivationRequirements extends AbstractInitializableComponent
+        implements Predicate<ProfileRequestContext> {
+
+    /** Class logger. */
+    private static Logger log = LoggerFactory.getLogger(ActivationRequirements.class);
+
+    /** entity ids given directly */
+    private Set<String> entityIds = Collections.emptySet();
+
+    /** the files of entity ids */
+    private File[] files = new File[0];
+
+    /** Interval, in milliseconds, between checks of the files.  0 disables. */
+    private long checkInterval = 60000;
+
+    /** modification times and sizes of the files when last loaded */
+    private String stamp;
+
+    /** all the entity ids */
+    private volatile Set<String> active;
+
+    /** checks the files */
+    private ScheduledExecutorService watch;
+
+    /**
+     * Load the entity ids and start checking the files.
+     *
+     * @throws ComponentInitializationException if a file can not be read
+     */
+    @Override protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        stamp = stamp();
+        try {
+            active = load();
+        } catch (IOException e) {
+            throw new ComponentInitializationException("activation file: " + e.getMessage());
+        }
+        startWatch();
+    }
+
+    /**
+     * Stop checking the files.
+     */
+    @Override protected void doDestroy() {
+        synchronized (this) {
+            if (watch != null) {
+                watch.shutdownNow();
+                watch = null;
+            }
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Whether the relying party of a request activates the connector: the resolution's
+     * attribute recipient or, failing that, the relying party of the profile request.
+     */
+    public boolean apply(@Nullable final ProfileRequestContext input) {
+        if (input == null) return false;
+        String entityId = null;
+        final AttributeResolutionContext resolutionContext = input.getSubcontext(AttributeResolutionContext.class);
+        if (resolutionContext != null) entityId = resolutionContext.getAttributeRecipientID();
+        if (entityId == null) {
+            final RelyingPartyContext rpContext = input.getSubcontext(RelyingPartyContext.class);
+            if (rpContext != null) entityId = rpContext.getRelyingPartyId();
+        }
+        final boolean isActive = isActive(entityId);
+        if (!isActive) log.debug("not active for {}", entityId);
+        return isActive;
+    }
+
+    /**
+     * Whether a relying party activates the connector.
+     */
+    public boolean isActive(String entityId) {
+        return entityId != null && active.contains(entityId);
+    }
+
+    /**
+     * This sets the relying parties that activate the connector.
+     *
+     * @param ids <code>List</code> entity ids
+     */
+    public void setEntityIds(@Nonnull final List<String> ids) {
+        entityIds = new HashSet<String>(ids);
+    }
+
+    /**
+     * This sets files, of one entity id per line, of relying parties that activate the
+     * connector.
+     *
+     * @param fileNames <code>List</code> file names
+     */
+    public void setFiles(@Nonnull final List<String> fileNames) {
+        files = new File[fileNames.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(fileNames.get(i));
+        }
+    }
+
+    /**
+     * This sets the interval, in milliseconds, between checks of the files for changes.
+     * 0 disables the checks.
+     *
+     * @param l <code>long</code> milliseconds
+     */
+    public void setCheckInterval(long l) {
+        checkInterval = l;
+    }
+
+    /**
+     * Check the files every checkInterval milliseconds, if there are any.
+     */
+    private synchronized void startWatch() {
+        if (watch != null || checkInterval <= 0 || files.length == 0) return;
+        watch = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ActivationRequirements watch");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        watch.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                checkFiles();
+            }
+        }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reload the files if they have changed.  If they can not be read the old entity ids
+     * stay in use.
+     */
+    void checkFiles() {
+        String current = stamp();
+        if (current.equals(stamp)) return;
+        try {
+            active = load();
+            stamp = current;
+            log.info("activation requirements reloaded: {} entity ids", active.size());
+        } catch (IOException e) {
+            log.error("activation requirements not reloaded: {}", e.toString());
+        } catch (RuntimeException e) {
+            log.error("activation requirements not reloaded: {}", e.toString());
+        }
+    }
+
+    /**
+     * Merge the entity ids and the files' contents
+     */
+    private Set<String> load() throws IOException {
+        Set<String> ids = new HashSet<String>(entityIds);
+        for (File file : files) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int hash = line.indexOf('#');
+                    if (hash >= 0) line = line.substring(0, hash);
+                    line = line.trim();
+                    if (line.length() > 0) ids.add(line);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Modification times and sizes of the files
+     */
+    private String stamp() {
+        StringBuilder sb = new StringBuilder();
+        for (File file : files) {
+            sb.append(file.lastModified()).append(':').append(file.length()).append(';');
+        }
+        return sb.toString();
+    }
+}
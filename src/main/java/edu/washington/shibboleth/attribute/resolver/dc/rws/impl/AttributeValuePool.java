@@ -0,0 +1,122 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.shibboleth.idp.attribute.StringAttributeValue;
+
+/**
+ * <code>AttributeValuePool</code> shares one {@link StringAttributeValue}, and its string, among
+ * all resolutions returning the same value.  Group names, for example, repeat across most users.
+ *
+ * The pool is bounded and evicts by second chance: a value is marked when it is asked for
+ * again, and when the pool fills a sweep removes the unmarked values and unmarks the rest,
+ * until a quarter of the pool is free.  Values in steady use stay pooled, and values seen
+ * once do not push them out.
+ */
+public class AttributeValuePool {
+
+    /** the pool */
+    private final ConcurrentMap<String, Entry> pool;
+
+    /** max entries */
+    private final int maxSize;
+
+    /** approximate entry count */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param maxSize max entries
+     */
+    public AttributeValuePool(int maxSize) {
+        this.maxSize = maxSize;
+        pool = new ConcurrentHashMap<String, Entry>(Math.min(maxSize, 1024));
+    }
+
+    /**
+     * Get the shared value for a string.
+     *
+     * @param value the string
+     * @return the shared attribute value
+     */
+    public StringAttributeValue get(String value) {
+        Entry e = pool.get(value);
+        if (e != null) {
+            if (!e.used) e.used = true;
+            return e.value;
+        }
+
+        if (size.get() >= maxSize) evict();
+        e = new Entry(new StringAttributeValue(value));
+        Entry prev = pool.putIfAbsent(value, e);
+        if (prev != null) {
+            prev.used = true;
+            return prev.value;
+        }
+        size.incrementAndGet();
+        return e.value;
+    }
+
+    /**
+     * Approximate number of pooled values.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Sweep the pool until a quarter of it is free.  A value used since the last sweep is
+     * unmarked and kept; the next sweep removes it unless it is used again.  After two
+     * sweeps values are removed regardless, so values used in between cannot keep it full.
+     */
+    private synchronized void evict() {
+        if (size.get() < maxSize) return;
+        int target = maxSize - Math.max(1, maxSize / 4);
+        for (int sweep = 0; sweep < 3 && size.get() > target; sweep++) {
+            Iterator<Entry> it = pool.values().iterator();
+            while (it.hasNext() && size.get() > target) {
+                Entry e = it.next();
+                if (e.used && sweep < 2) {
+                    e.used = false;
+                } else {
+                    it.remove();
+                    size.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * A pooled value
+     */
+    private static class Entry {
+        final StringAttributeValue value;
+        /** whether used since the last sweep */
+        volatile boolean used;
+
+        Entry(StringAttributeValue value) {
+            this.value = value;
+        }
+    }
+}
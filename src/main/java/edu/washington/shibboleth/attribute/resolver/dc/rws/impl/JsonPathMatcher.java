@@ -0,0 +1,421 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <code>JsonPathMatcher</code> evaluates the json paths of several attributes while streaming
+ * through a JSON document once.  No tree is built.
+ *
+ * Paths are a JSONPath subset: <code>$</code> followed by <code>.name</code>, <code>['name']</code>,
+ * <code>[n]</code>, <code>.*</code>, <code>[*]</code> or <code>..name</code> (any depth).
+ * Only scalar values are collected: strings, numbers and booleans, as text.  Nulls are skipped.
+ *
+ * An attribute stops collecting at its maxResultSize.  Once every path is full the rest of the
+ * document is not read.
+ */
+public class JsonPathMatcher {
+
+    /** segment types */
+    private static final int KEY = 0;
+    private static final int INDEX = 1;
+    private static final int ANY = 2;
+    private static final int DESCEND = 3;
+
+    /** compiled paths, null where an attribute has no json path */
+    private final Segment[][] paths;
+
+    /** per attribute maxResultSize, 0 is unlimited */
+    private final int[] limits;
+
+    /** number of paths */
+    private final int pathCount;
+
+    /** whether every path has a limit, so parsing can stop early */
+    private final boolean allLimited;
+
+    /**
+     * Compile the attributes' json paths.
+     *
+     * @param attributes the attributes, in result order
+     * @throws IllegalArgumentException if a path is not valid
+     */
+    public JsonPathMatcher(List<RwsAttribute> attributes) {
+        paths = new Segment[attributes.size()][];
+        limits = new int[paths.length];
+        int n = 0;
+        boolean limited = true;
+        for (int i = 0; i < paths.length; i++) {
+            String path = attributes.get(i).jsonPath;
+            paths[i] = path == null ? null : compile(path);
+            limits[i] = Math.max(0, attributes.get(i).maxResultSize);
+            if (paths[i] != null) {
+                n++;
+                if (limits[i] == 0) limited = false;
+            }
+        }
+        pathCount = n;
+        allLimited = limited;
+    }
+
+    /**
+     * Stream the document, collecting matching scalar values.
+     *
+     * @param in the document
+     * @return per attribute list of values in document order, null where there is no json path
+     * @throws IOException if the document can not be read or is not valid JSON
+     */
+    public List<List<String>> evaluate(Reader in) throws IOException {
+        List<List<String>> results = new ArrayList<List<String>>(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            results.add(paths[i] == null ? null : new ArrayList<String>());
+        }
+        Parser parser = new Parser(in, results);
+        try {
+            parser.parseValue();
+        } catch (Full e) {
+            return results;
+        }
+        if (parser.skipWhitespace() != -1) throw parser.error("trailing content");
+        return results;
+    }
+
+    /**
+     * Compile a json path.
+     *
+     * @throws IllegalArgumentException if the path is not valid
+     */
+    static Segment[] compile(String path) {
+        String p = path.trim();
+        if (!p.startsWith("$")) throw new IllegalArgumentException("json path must start with $: " + path);
+        List<Segment> segments = new ArrayList<Segment>();
+        int i = 1;
+        while (i < p.length()) {
+            char c = p.charAt(i);
+            if (c == '.') {
+                if (i + 1 < p.length() && p.charAt(i + 1) == '.') {
+                    segments.add(new Segment(DESCEND, null, 0));
+                    i++;
+                }
+                int start = ++i;
+                while (i < p.length() && p.charAt(i) != '.' && p.charAt(i) != '[') i++;
+                String name = p.substring(start, i);
+                if (name.length() == 0) throw new IllegalArgumentException("empty name in json path: " + path);
+                segments.add("*".equals(name) ? new Segment(ANY, null, 0) : new Segment(KEY, name, 0));
+            } else if (c == '[') {
+                int end = p.indexOf(']', i);
+                if (end < 0) throw new IllegalArgumentException("unclosed [ in json path: " + path);
+                String sel = p.substring(i + 1, end).trim();
+                if ("*".equals(sel)) {
+                    segments.add(new Segment(ANY, null, 0));
+                } else if (sel.length() >= 2 && (sel.charAt(0) == '\'' || sel.charAt(0) == '"')
+                        && sel.charAt(sel.length() - 1) == sel.charAt(0)) {
+                    segments.add(new Segment(KEY, sel.substring(1, sel.length() - 1), 0));
+                } else {
+                    try {
+                        segments.add(new Segment(INDEX, null, Integer.parseInt(sel)));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("bad selector [" + sel + "] in json path: " + path);
+                    }
+                }
+                i = end + 1;
+            } else {
+                throw new IllegalArgumentException("unexpected '" + c + "' in json path: " + path);
+            }
+        }
+        if (segments.size() > 0 && segments.get(segments.size() - 1).type == DESCEND) {
+            throw new IllegalArgumentException("json path ends with ..: " + path);
+        }
+        return segments.toArray(new Segment[segments.size()]);
+    }
+
+    /**
+     * Whether text is a JSON number: <code>-?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?</code>
+     */
+    static boolean isNumber(String s) {
+        int n = s.length();
+        int i = 0;
+        if (i < n && s.charAt(i) == '-') i++;
+        if (i < n && s.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            i = skipDigits(s, i);
+            if (i == start) return false;
+        }
+        if (i < n && s.charAt(i) == '.') {
+            int start = ++i;
+            i = skipDigits(s, i);
+            if (i == start) return false;
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+            int start = i;
+            i = skipDigits(s, i);
+            if (i == start) return false;
+        }
+        return i == n;
+    }
+
+    private static int skipDigits(String s, int i) {
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') i++;
+        return i;
+    }
+
+    /**
+     * One path segment.
+     */
+    static class Segment {
+        final int type;
+        final String key;
+        final int index;
+
+        Segment(int type, String key, int index) {
+            this.type = type;
+            this.key = key;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Thrown to stop parsing once every path is full.
+     */
+    private static class Full extends RuntimeException {
+        Full() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Streaming parser tracking the current location.
+     */
+    private class Parser {
+
+        private final Reader in;
+        private final List<List<String>> results;
+        private final char[] buf = new char[8192];
+        private int pos;
+        private int len;
+        private int peeked = -2;
+
+        /** current location: key, or null for an array element at index */
+        private String[] keys = new String[16];
+        private int[] indices = new int[16];
+        private int depth;
+
+        private final StringBuilder sb = new StringBuilder();
+
+        /** paths not yet full */
+        private int open = pathCount;
+
+        Parser(Reader in, List<List<String>> results) {
+            this.in = in;
+            this.results = results;
+        }
+
+        private int read() throws IOException {
+            if (peeked != -2) {
+                int c = peeked;
+                peeked = -2;
+                return c;
+            }
+            if (pos == len) {
+                len = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (len <= 0) {
+                    len = 0;
+                    return -1;
+                }
+            }
+            return buf[pos++];
+        }
+
+        private void unread(int c) {
+            peeked = c;
+        }
+
+        int skipWhitespace() throws IOException {
+            int c;
+            do {
+                c = read();
+            } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+            return c;
+        }
+
+        IOException error(String msg) {
+            return new IOException("json parse error: " + msg);
+        }
+
+        private void push(String key, int index) {
+            if (depth == keys.length) {
+                keys = Arrays.copyOf(keys, depth * 2);
+                indices = Arrays.copyOf(indices, depth * 2);
+            }
+            keys[depth] = key;
+            indices[depth] = index;
+            depth++;
+        }
+
+        void parseValue() throws IOException {
+            int c = skipWhitespace();
+            switch (c) {
+                case '{':
+                    parseObject();
+                    break;
+                case '[':
+                    parseArray();
+                    break;
+                case '"':
+                    scalar(readString());
+                    break;
+                case -1:
+                    throw error("unexpected end of document");
+                default:
+                    unread(c);
+                    String literal = readLiteral();
+                    if (!"null".equals(literal)) scalar(literal);
+            }
+        }
+
+        private void parseObject() throws IOException {
+            int c = skipWhitespace();
+            if (c == '}') return;
+            while (true) {
+                if (c != '"') throw error("expected object key");
+                String key = readString();
+                if (skipWhitespace() != ':') throw error("expected :");
+                push(key, -1);
+                parseValue();
+                depth--;
+                c = skipWhitespace();
+                if (c == '}') return;
+                if (c != ',') throw error("expected , or }");
+                c = skipWhitespace();
+            }
+        }
+
+        private void parseArray() throws IOException {
+            int c = skipWhitespace();
+            if (c == ']') return;
+            unread(c);
+            int index = 0;
+            while (true) {
+                push(null, index++);
+                parseValue();
+                depth--;
+                c = skipWhitespace();
+                if (c == ']') return;
+                if (c != ',') throw error("expected , or ]");
+            }
+        }
+
+        private String readString() throws IOException {
+            sb.setLength(0);
+            while (true) {
+                int c = read();
+                if (c == '"') return sb.toString();
+                if (c == -1) throw error("unterminated string");
+                if (c == '\\') {
+                    c = read();
+                    switch (c) {
+                        case 'b': sb.append('\b'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'n': sb.append('\n'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'u':
+                            int u = 0;
+                            for (int i = 0; i < 4; i++) {
+                                int d = Character.digit(read(), 16);
+                                if (d < 0) throw error("bad \\u escape");
+                                u = (u << 4) | d;
+                            }
+                            sb.append((char) u);
+                            break;
+                        case '"': case '\\': case '/':
+                            sb.append((char) c);
+                            break;
+                        default:
+                            throw error("bad escape");
+                    }
+                } else {
+                    sb.append((char) c);
+                }
+            }
+        }
+
+        private String readLiteral() throws IOException {
+            sb.setLength(0);
+            int c = read();
+            while ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '+' || c == '.') {
+                sb.append((char) c);
+                c = read();
+            }
+            unread(c);
+            if (sb.length() == 0) throw error("unexpected character");
+            String s = sb.toString();
+            if (!"true".equals(s) && !"false".equals(s) && !"null".equals(s) && !isNumber(s)) {
+                throw error("bad literal " + s);
+            }
+            return s;
+        }
+
+        private void scalar(String value) {
+            for (int i = 0; i < paths.length; i++) {
+                if (paths[i] == null) continue;
+                List<String> values = results.get(i);
+                if (limits[i] > 0 && values.size() >= limits[i]) continue;
+                if (matches(paths[i], 0, 0)) {
+                    values.add(value);
+                    if (values.size() == limits[i]) open--;
+                }
+            }
+            if (allLimited && open == 0) throw new Full();
+        }
+
+        private boolean matches(Segment[] path, int si, int di) {
+            if (si == path.length) return di == depth;
+            Segment seg = path[si];
+            if (seg.type == DESCEND) {
+                for (int d = di; d < depth; d++) {
+                    if (matches(path, si + 1, d)) return true;
+                }
+                return false;
+            }
+            if (di == depth) return false;
+            switch (seg.type) {
+                case KEY:
+                    if (keys[di] == null || !seg.key.equals(keys[di])) return false;
+                    break;
+                case INDEX:
+                    if (keys[di] != null || indices[di] != seg.index) return false;
+                    break;
+                default:
+                    break;
+            }
+            return matches(path, si + 1, di + 1);
+        }
+    }
+}
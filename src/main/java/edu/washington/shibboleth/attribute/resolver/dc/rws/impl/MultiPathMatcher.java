@@ -0,0 +1,206 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * <code>MultiPathMatcher</code> evaluates the simple xpaths of several attributes in a single
+ * walk of a document.
+ *
+ * Simple xpaths are chains of element steps, <code>/a/b</code> or <code>//a/b</code>, where each
+ * step is a name or <code>*</code> with an optional <code>[@attr='value']</code> predicate.  Other
+ * xpaths are left to {@link javax.xml.xpath.XPathExpression}; their result slot is null.
+ *
+ * An attribute stops collecting at its maxResultSize.  Once every simple path is full the
+ * walk stops.
+ */
+public class MultiPathMatcher {
+
+    /** one step: name or *, optional attribute equality predicate */
+    private static final Pattern STEP = Pattern.compile(
+            "\\G/([A-Za-z_][\\w.\\-:]*|\\*)(?:\\[\\s*@([A-Za-z_][\\w.\\-:]*)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")\\s*\\])?");
+
+    /** compiled paths, null where the xpath is not simple */
+    private final Path[] paths;
+
+    /** number of simple paths */
+    private final int simpleCount;
+
+    /** per attribute maxResultSize, 0 is unlimited */
+    private final int[] limits;
+
+    /** whether every simple path has a limit, so the walk can stop early */
+    private final boolean allLimited;
+
+    /**
+     * Compile the attributes' xpaths.
+     *
+     * @param attributes the attributes, in result order
+     */
+    public MultiPathMatcher(List<RwsAttribute> attributes) {
+        paths = new Path[attributes.size()];
+        limits = new int[paths.length];
+        int n = 0;
+        boolean limited = true;
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = compile(attributes.get(i).xPath);
+            limits[i] = Math.max(0, attributes.get(i).maxResultSize);
+            if (paths[i] != null) {
+                n++;
+                if (limits[i] == 0) limited = false;
+            }
+        }
+        simpleCount = n;
+        allLimited = limited;
+    }
+
+    /**
+     * Whether the i'th attribute's xpath is handled here.
+     */
+    public boolean isSimple(int i) {
+        return paths[i] != null;
+    }
+
+    /**
+     * Walk the document once, collecting the text of matching elements.
+     *
+     * @param doc the document
+     * @return per attribute list of values in document order, null for xpaths not handled here
+     */
+    public List<List<String>> evaluate(Document doc) {
+        List<List<String>> results = new ArrayList<List<String>>(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            results.add(paths[i] == null ? null : new ArrayList<String>());
+        }
+        if (simpleCount == 0) return results;
+
+        int open = simpleCount;
+        Node node = doc.getDocumentElement();
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                Element element = (Element) node;
+                for (int i = 0; i < paths.length; i++) {
+                    if (paths[i] == null) continue;
+                    List<String> values = results.get(i);
+                    if (limits[i] > 0 && values.size() >= limits[i]) continue;
+                    if (paths[i].matches(element)) {
+                        values.add(element.getTextContent());
+                        if (values.size() == limits[i]) open--;
+                    }
+                }
+                if (allLimited && open == 0) break;
+            }
+            // preorder, document order, without recursion
+            Node next = node.getFirstChild();
+            while (next == null && node != null) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                    if (node == null || node.getNodeType() == Node.DOCUMENT_NODE) {
+                        node = null;
+                    }
+                }
+            }
+            node = next;
+        }
+        return results;
+    }
+
+    /**
+     * Compile a simple xpath.
+     *
+     * @return the path or null if the xpath is not simple
+     */
+    static Path compile(String xpath) {
+        if (xpath == null) return null;
+        String expr = xpath.trim();
+        boolean anywhere = false;
+        if (expr.startsWith("//")) {
+            anywhere = true;
+            expr = expr.substring(1);
+        } else if (!expr.startsWith("/")) {
+            return null;
+        }
+        List<Step> steps = new ArrayList<Step>();
+        Matcher m = STEP.matcher(expr);
+        int pos = 0;
+        while (pos < expr.length()) {
+            if (!m.find(pos) || m.start() != pos) return null;
+            String value = m.group(3) != null ? m.group(3) : m.group(4);
+            steps.add(new Step(m.group(1), m.group(2), value));
+            pos = m.end();
+        }
+        if (steps.isEmpty()) return null;
+        return new Path(steps.toArray(new Step[steps.size()]), anywhere);
+    }
+
+    /**
+     * A chain of steps, matched from the last step up through the parents.
+     */
+    static class Path {
+        private final Step[] steps;
+        private final boolean anywhere;
+
+        Path(Step[] steps, boolean anywhere) {
+            this.steps = steps;
+            this.anywhere = anywhere;
+        }
+
+        boolean matches(Element element) {
+            Node node = element;
+            for (int i = steps.length - 1; i >= 0; i--) {
+                if (node == null || node.getNodeType() != Node.ELEMENT_NODE) return false;
+                if (!steps[i].matches((Element) node)) return false;
+                node = node.getParentNode();
+            }
+            return anywhere || (node != null && node.getNodeType() == Node.DOCUMENT_NODE);
+        }
+    }
+
+    /**
+     * One step of a path.
+     */
+    static class Step {
+        private final String name;
+        private final String attrName;
+        private final String attrValue;
+
+        Step(String name, String attrName, String attrValue) {
+            this.name = "*".equals(name) ? null : name;
+            this.attrName = attrName;
+            this.attrValue = attrValue;
+        }
+
+        boolean matches(Element element) {
+            if (name != null && !name.equals(element.getNodeName())) return false;
+            if (attrName != null) {
+                if (!element.hasAttribute(attrName)) return false;
+                return attrValue.equals(element.getAttribute(attrName));
+            }
+            return true;
+        }
+    }
+}
@@ -23,8 +23,11 @@ import javax.xml.xpath.XPathExpression;
 public class RwsAttribute {
     public String name;
     public String xPath;
+    public String jsonPath;
+    public String field;
     public int maxResultSize;
     public boolean noResultIsError;
+    public boolean shareValues;
     public XPathExpression xpathExpression;
 }
 
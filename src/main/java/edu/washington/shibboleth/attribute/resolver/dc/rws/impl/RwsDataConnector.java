@@ -19,22 +19,48 @@ package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
 import java.util.Date;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.lang.IllegalArgumentException;
 
 import java.net.URL;
+import java.net.URLDecoder;
 import java.net.MalformedURLException;
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -90,6 +116,7 @@ import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.AuthState;
 
+import org.opensaml.profile.context.ProfileRequestContext;
 import org.opensaml.security.x509.X509Credential;
 
 import org.slf4j.Logger;
@@ -119,6 +146,9 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
 
 
 import edu.washington.shibboleth.attribute.resolver.dc.rws.HttpDataSource;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.ResourceTiming;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.JsonResponseReader;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.ResponseReader;
 
 
 
@@ -138,6 +168,22 @@ public class RwsDataConnector extends AbstractDataConnector {
         CLIENT_CERT
     };
 
+    /** Response format values. */
+    public static enum RESPONSE_FORMAT {
+        /** XML, attributes selected by xPath. */
+        XML,
+        /** JSON, attributes selected by jsonPath. */
+        JSON
+    };
+
+    /** Execution mode values. */
+    public static enum EXECUTION_MODE {
+        /** The resolver thread makes the call. */
+        CALLER,
+        /** Calls are made on virtual threads, or a thread pool where the JVM has none. */
+        VIRTUAL
+    };
+
     /** Class logger. */
     private static Logger log = LoggerFactory.getLogger(RwsDataConnector.class);
 
@@ -165,9 +211,21 @@ public class RwsDataConnector extends AbstractDataConnector {
     /** Whether an empty result set is an error. */
     private boolean noResultsIsError;
 
-    /** Whether to cache search results for the duration of the session. */
+    /** Whether to cache search results for as long as the responses' cache headers allow. */
     private boolean cacheResults;
 
+    /** Milliseconds results are cached when the response has no cache headers.  0 is not at all. */
+    private long cacheTtl = 0;
+
+    /** Least milliseconds results are cached, whatever the headers say, unless they forbid it */
+    private long cacheMinTtl = 0;
+
+    /** Most milliseconds results are cached, whatever the headers say */
+    private long cacheMaxTtl = 3600000;
+
+    /** Most results cached at once */
+    private int cacheSize = 10000;
+
     /** Time, in milliseconds, to wait for a search to return. */
     private int searchTimeLimit;
 
@@ -176,8 +234,8 @@ public class RwsDataConnector extends AbstractDataConnector {
     private URL baseURL;
     private int basePort;
 
-    /** Data cache. */
-    // private Map<String, Map<String, Map<String, IdPAttribute>>> cache;
+    /** Data cache, by query string. */
+    private final ConcurrentMap<String, Cached> cache = new ConcurrentHashMap<String, Cached>();
 
     /** Whether this data connector has been initialized. */
     private boolean initialized;
@@ -188,8 +246,12 @@ public class RwsDataConnector extends AbstractDataConnector {
     /** max results. */
     private int maxResults;
 
-    /** parser for ws response. */
-    private DocumentBuilder documentBuilder;
+    /** makes parsers for ws responses. */
+    private DocumentBuilderFactory domFactory;
+
+    /** idle parsers, one taken per parse so parses run in parallel */
+    private final ConcurrentLinkedQueue<DocumentBuilder> documentBuilders =
+            new ConcurrentLinkedQueue<DocumentBuilder>();
 
     /** xpath evaluator */
     XPathExpression xpathExpression;
@@ -197,6 +259,108 @@ public class RwsDataConnector extends AbstractDataConnector {
     /** Attributes to fetch */
     private List<RwsAttribute> rwsAttributes;
 
+    /** Single pass evaluator of the attributes' simple xpaths */
+    private MultiPathMatcher pathMatcher;
+
+    /** Response format, if null chosen from the data source's accept header */
+    private RESPONSE_FORMAT responseFormat;
+
+    /** Streaming evaluator of the attributes' json paths */
+    private JsonPathMatcher jsonMatcher;
+
+    /** Hands the response stream to the json matcher */
+    private final ResponseReader<List<List<String>>> jsonReader = new JsonResponseReader<List<List<String>>>() {
+        public List<List<String>> read(Reader content) throws IOException {
+            return jsonMatcher.evaluate(content);
+        }
+    };
+
+    /** Which threads make the web service calls */
+    private EXECUTION_MODE executionMode = EXECUTION_MODE.CALLER;
+
+    /** Max calls in flight in VIRTUAL mode */
+    private int maxInFlight = 200;
+
+    /** Time, in milliseconds, a resolution waits in VIRTUAL mode.  0 waits indefinitely. */
+    private long resolveTimeout = 30000;
+
+    /** Runs the calls in VIRTUAL mode */
+    private ExecutorService executor;
+
+    /** Bounds the calls in flight in VIRTUAL mode */
+    private Semaphore inFlight;
+
+    /** Query parameter limiting the fields returned, null if none */
+    private String fieldsParameter;
+
+    /** Fields requested, null to take them from the attributes */
+    private String fields;
+
+    /** Parameter appended to each request, e.g. fields=a,b, null if none */
+    private String fieldsQuery;
+
+    /** $.name or $['name'] at the start of a json path */
+    private static final Pattern FIRST_JSON_NAME = Pattern.compile("\\$(?:\\.([A-Za-z_][\\w-]*)|\\[\\s*'([^']*)'\\s*\\])");
+
+    /** Responses checked for attributes the field projection may have removed */
+    private static final int PROJECTION_CHECKS = 100;
+
+    /** Projected responses seen, and which attributes have matched in them */
+    private final AtomicInteger projectedResponses = new AtomicInteger();
+    private boolean[] projectedMatched;
+
+    /** Path, xPath or jsonPath as the response, of the next page's link.  Null if none. */
+    private String nextPagePath;
+
+    /** Query parameter of the page start offset, null if none */
+    private String pageStartParameter;
+
+    /** Query parameter of the page size, null if none */
+    private String pageSizeParameter;
+
+    /** Values per page, with pageStartParameter.  A shorter page is the last. */
+    private int pageSize;
+
+    /** Offset of the first page */
+    private int firstPageStart = 0;
+
+    /** Most pages read per resolution */
+    private int maxPages = 100;
+
+    /** The attributes and, if paged by link, the next page path: what the matchers match */
+    private List<RwsAttribute> matchAttributes;
+
+    /** Profiles whose resolutions are background work, shed first under load */
+    private Set<String> backgroundProfiles = new HashSet<String>(Arrays.asList(
+            "http://shibboleth.net/ns/profiles/saml1/query/attribute",
+            "http://shibboleth.net/ns/profiles/saml2/query/attribute",
+            "http://shibboleth.net/ns/profiles/resolvertest"));
+
+    /** Requesters whose resolutions are background work */
+    private Set<String> backgroundRequesters = Collections.emptySet();
+
+    /** Whether responses are shared with other connectors in the same resolution */
+    private boolean shareResponses = false;
+
+    /** How long, in milliseconds, a prefetched response waits in the cache to be used.  0 disables prefetch. */
+    private long prefetchTtl = 0;
+
+    /** Connectors accepting prefetches, by id */
+    private static final ConcurrentMap<String, RwsDataConnector> prefetchConnectors =
+            new ConcurrentHashMap<String, RwsDataConnector>();
+
+    /** Max values of attributes with shareValues shared between resolutions.  0 disables sharing. */
+    private int valuePoolSize = 10000;
+
+    /** Shared attribute values */
+    private AttributeValuePool valuePool;
+
+    /** Resolutions slower than this (milliseconds) are logged.  0 disables. */
+    private long slowResolutionThreshold;
+
+    /** Whether to hide the principal in the slow resolution log */
+    private boolean redactPrincipal = true;
+
     /**
      * This creates a new data connector with the supplied properties.
      * 
@@ -217,32 +381,110 @@ public class RwsDataConnector extends AbstractDataConnector {
         }
 
         try {
-           DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
+           domFactory = DocumentBuilderFactory.newInstance();
            domFactory.setNamespaceAware(false);  // parameter
            domFactory.setValidating(false);
            String feature = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
            domFactory.setFeature(feature, false);
            feature = "http://apache.org/xml/features/nonvalidating/load-dtd-grammar";
            domFactory.setFeature(feature, false);
-           documentBuilder = domFactory.newDocumentBuilder();
+           documentBuilders.offer(domFactory.newDocumentBuilder());
 
          } catch (ParserConfigurationException e) {
-           log.error("javax.xml.parsers.ParserConfigurationException: " + e);
+           log.error("javax.xml.parsers.ParserConfigurationException: {}", e.toString());
          }
 
-         for (int i=0; i<rwsAttributes.size(); i++) {
-             RwsAttribute attr = rwsAttributes.get(i);
+        if (valuePoolSize > 0) {
+            for (RwsAttribute attr : rwsAttributes) {
+                if (attr.shareValues && valuePool == null) valuePool = new AttributeValuePool(valuePoolSize);
+            }
+        }
+
+        if (executionMode == EXECUTION_MODE.VIRTUAL || prefetchTtl > 0) {
+            inFlight = new Semaphore(maxInFlight);
+            executor = newVirtualThreadExecutor();
+            if (executor == null) {
+                log.info("{} virtual threads are not available, using a pool of {} threads", getLogPrefix(), maxInFlight);
+                executor = Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, getId() + " rws call");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+
+        if (fieldsParameter != null) {
+            fieldsQuery = buildFieldsQuery();
+            projectedMatched = new boolean[rwsAttributes.size()];
+            log.info("{} requesting only {}", getLogPrefix(), fieldsQuery);
+        }
+
+        if (prefetchTtl > 0) {
+            if (queryStringBuilder.isPrincipalOnly()) {
+                prefetchConnectors.put(getId(), this);
+            } else {
+                log.warn("{} query template needs more than the principal name, prefetch disabled", getLogPrefix());
+            }
+        }
+
+        if (pageStartParameter != null && pageSize <= 0) {
+            throw new ComponentInitializationException(getLogPrefix() + " pageStartParameter needs a pageSize");
+        }
+        matchAttributes = rwsAttributes;
+        if (nextPagePath != null) {
+            RwsAttribute next = new RwsAttribute();
+            next.name = "next page";
+            next.xPath = nextPagePath;
+            next.jsonPath = nextPagePath;
+            next.maxResultSize = 1;
+            matchAttributes = new ArrayList<RwsAttribute>(rwsAttributes);
+            matchAttributes.add(next);
+        }
+
+        if (responseFormat == null) {
+             String accept = httpDataSource.getAcceptHeader();
+             responseFormat = accept != null && accept.toLowerCase().contains("json") ?
+                     RESPONSE_FORMAT.JSON : RESPONSE_FORMAT.XML;
+         }
+         log.debug("{} response format: {}", getLogPrefix(), responseFormat);
+
+         if (responseFormat == RESPONSE_FORMAT.JSON) {
+             for (RwsAttribute attr : rwsAttributes) {
+                 if (attr.jsonPath == null) {
+                     throw new ComponentInitializationException(getLogPrefix() + " attribute " + attr.name
+                             + " has no jsonPath");
+                 }
+             }
              try {
-                XPath xpath = XPathFactory.newInstance().newXPath();
-                log.debug("xpath for {} is {}", attr.name, attr.xPath);
-                attr.xpathExpression = xpath.compile(attr.xPath);
-             } catch (XPathExpressionException e) {
-                log.error("xpath expr: " + e);
+                 jsonMatcher = new JsonPathMatcher(matchAttributes);
+             } catch (IllegalArgumentException e) {
+                 throw new ComponentInitializationException(getLogPrefix() + " " + e.getMessage());
+             }
+         } else {
+             pathMatcher = new MultiPathMatcher(matchAttributes);
+             for (int i=0; i<matchAttributes.size(); i++) {
+                 RwsAttribute attr = matchAttributes.get(i);
+                 if (attr.xPath == null) {
+                     throw new ComponentInitializationException(getLogPrefix() + " attribute " + attr.name
+                             + " has no xPath");
+                 }
+                 log.debug("xpath for {} single pass: {}", attr.name, pathMatcher.isSimple(i));
+                 try {
+                    XPath xpath = XPathFactory.newInstance().newXPath();
+                    log.debug("xpath for {} is {}", attr.name, attr.xPath);
+                    attr.xpathExpression = xpath.compile(attr.xPath);
+                 } catch (XPathExpressionException e) {
+                    log.error("xpath expr: {}", e.toString());
+                 }
              }
          }
 
          // initializeCache();
 
+        /* only once the configuration is known to be good */
+        httpDataSource.warmUp(baseUrl);
     }
 
 
@@ -257,29 +499,457 @@ public class RwsDataConnector extends AbstractDataConnector {
         final Map<String, List<IdPAttributeValue<?>>> dependsAttributes =
                 PluginDependencySupport.getAllAttributeValues(workContext, getDependencies());
 
+        ResourceTiming timing = new ResourceTiming();
+        timing.priority = getPriority(resolutionContext);
+        long start = System.nanoTime();
         String queryString = queryStringBuilder.getQueryString(resolutionContext, dependsAttributes);
         queryString = queryString.trim();
+        timing.renderTime = System.nanoTime() - start;
         log.debug("RWS query filter: {}", queryString);
 
         // create Attribute objects to return
         Map<String, IdPAttribute> attributes = null;
 
-        // not using cache for now 
+        if (cacheResults || prefetchTtl > 0) {
+            attributes = getCachedAttributes(queryString, timing, start);
+        }
 
         if (attributes == null) {
             log.debug("Retrieving attributes from GWS");
-            attributes = getRwsAttributes(queryString);
-            // if (cacheResults && attributes != null) {
-                // setCachedAttributes(resolutionContext, queryString, attributes);
-                // log.debug("Stored results in the cache");
-            // }
+            RwsResponseContext shared = shareResponses ?
+                    resolutionContext.getSubcontext(RwsResponseContext.class, true) : null;
+            if (executionMode == EXECUTION_MODE.VIRTUAL) {
+                attributes = getRwsAttributesAsync(queryString, timing, shared, start);
+            } else {
+                attributes = getRwsAttributes(queryString, timing, shared);
+            }
+            if (cacheResults) {
+                setCachedAttributes(queryString, attributes, timing.freshness);
+            }
         }
 
 
+        if (slowResolutionThreshold > 0 && timing.getTotalTime() > slowResolutionThreshold * 1000000L) {
+            logSlowResolution(resolutionContext, queryString, timing);
+        }
+
         log.trace("{} Resolved attributes: {}", getLogPrefix(), attributes);
         return attributes;
     }
 
+    /**
+     * Create a virtual thread per task executor, where the JVM supports them.
+     *
+     * @return the executor, or null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * This queries the web service on the executor, waiting at most resolveTimeout for a
+     * free slot and the result.
+     *
+     * @param queryString <code>String</code> the queryString for the rest get
+     * @param timing receives the time spent in each phase
+     * @param shared responses of this resolution, may be null
+     * @return <code>Map</code> of attributes
+     * @throws ResolutionException if too many calls are in flight, the call times out or fails
+     */
+    protected Map<String, IdPAttribute> getRwsAttributesAsync(final String queryString, final ResourceTiming timing,
+            final RwsResponseContext shared) throws ResolutionException {
+        return getRwsAttributesAsync(queryString, timing, shared, System.nanoTime());
+    }
+
+    /**
+     * This queries the web service on the executor, waiting for a free slot and the result
+     * at most what is left of resolveTimeout.
+     *
+     * @param queryString <code>String</code> the queryString for the rest get
+     * @param timing receives the time spent in each phase
+     * @param shared responses of this resolution, may be null
+     * @param waitStart when, in System.nanoTime, the resolution started waiting
+     * @return <code>Map</code> of attributes
+     * @throws ResolutionException if too many calls are in flight, the call times out or fails
+     */
+    private Map<String, IdPAttribute> getRwsAttributesAsync(final String queryString, final ResourceTiming timing,
+            final RwsResponseContext shared, final long waitStart) throws ResolutionException {
+        final long start = System.nanoTime();
+        try {
+            if (resolveTimeout <= 0) {
+                inFlight.acquire();
+            } else if (!inFlight.tryAcquire(Math.max(remainingNanos(waitStart), 0), TimeUnit.NANOSECONDS)) {
+                throw new ResolutionException(getLogPrefix() + " " + maxInFlight + " rws calls already in flight");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResolutionException(getLogPrefix() + " interrupted waiting for an rws call slot");
+        }
+
+        FutureTask<Map<String, IdPAttribute>> task = newTask(queryString, timing, shared, start);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw new ResolutionException(getLogPrefix() + " rws call rejected: " + e.getMessage());
+        }
+
+        try {
+            if (resolveTimeout <= 0) return task.get();
+            return task.get(Math.max(remainingNanos(waitStart), 0), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ResolutionException) throw (ResolutionException) e.getCause();
+            throw new ResolutionException(getLogPrefix() + " rws call failed", e.getCause());
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            throw new ResolutionException(getLogPrefix() + " rws call timed out after " + resolveTimeout + "ms");
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ResolutionException(getLogPrefix() + " interrupted waiting for an rws call");
+        }
+    }
+
+    /**
+     * What is left of resolveTimeout, in nanoseconds, for a resolution that started waiting
+     * at waitStart.
+     */
+    private long remainingNanos(long waitStart) {
+        return resolveTimeout * 1000000L - (System.nanoTime() - waitStart);
+    }
+
+    /**
+     * Create a task querying the web service.  It holds an inFlight permit until the call
+     * returns, even if the task is cancelled while the call runs, so a timed out call still
+     * counts against maxInFlight.  A task cancelled before it starts releases the permit
+     * when cancelled.  The caller releases it if the executor rejects the task.
+     */
+    private FutureTask<Map<String, IdPAttribute>> newTask(final String queryString, final ResourceTiming timing,
+            final RwsResponseContext shared, final long start) {
+        /* set by whichever of the call and the cancellation comes first, which releases the permit */
+        final AtomicBoolean claimed = new AtomicBoolean();
+        return new FutureTask<Map<String, IdPAttribute>>(
+                new Callable<Map<String, IdPAttribute>>() {
+                    public Map<String, IdPAttribute> call() throws ResolutionException {
+                        if (!claimed.compareAndSet(false, true)) return null;
+                        try {
+                            timing.queueTime = System.nanoTime() - start;
+                            return getRwsAttributes(queryString, timing, shared);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                }) {
+            @Override
+            protected void done() {
+                if (isCancelled() && claimed.compareAndSet(false, true)) inFlight.release();
+            }
+        };
+    }
+
+    /**
+     * Start fetching a principal's attributes ahead of resolution, e.g. as soon as the
+     * login flow has validated the user.  The call is held in the results cache, so a
+     * resolution rendering the same query within prefetchTtl uses its response instead of
+     * making its own call.  Nothing is fetched if the query's results are already cached or
+     * being prefetched, or too many calls are already in flight.
+     *
+     * @param principal the principal name
+     */
+    public void prefetch(@Nonnull final String principal) {
+        if (prefetchTtl <= 0 || executor == null) return;
+        final AttributeResolutionContext context = new AttributeResolutionContext();
+        context.setPrincipal(principal);
+        final String queryString = queryStringBuilder.getQueryString(context,
+                Collections.<String, List<IdPAttributeValue<?>>>emptyMap()).trim();
+        final long now = System.currentTimeMillis();
+        final Cached current = cache.get(queryString);
+        if (current != null && current.expires > now) return;
+        makeRoom(now);
+        if (!inFlight.tryAcquire()) {
+            log.debug("{} too many calls in flight, not prefetching", getLogPrefix());
+            return;
+        }
+        final ResourceTiming timing = new ResourceTiming();
+        final Cached prefetch = new Cached(newTask(queryString, timing, null, System.nanoTime()), timing,
+                now + prefetchTtl);
+        if (current == null ? cache.putIfAbsent(queryString, prefetch) != null
+                : !cache.replace(queryString, current, prefetch)) {
+            inFlight.release();
+            return;
+        }
+        try {
+            executor.execute(prefetch.task);
+            log.debug("{} prefetching {}", getLogPrefix(), queryString);
+        } catch (RejectedExecutionException e) {
+            cache.remove(queryString, prefetch);
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Returns the connectors accepting prefetches.
+     *
+     * @return the connectors
+     */
+    static Collection<RwsDataConnector> getPrefetchConnectors() {
+        return prefetchConnectors.values();
+    }
+
+    /**
+     * Returns a connector accepting prefetches.
+     *
+     * @param id the connector id
+     * @return the connector, or null
+     */
+    static RwsDataConnector getPrefetchConnector(String id) {
+        return prefetchConnectors.get(id);
+    }
+
+    /**
+     * The priority of a resolution: background for the background profiles and requesters,
+     * otherwise interactive.
+     */
+    private HttpDataSource.PRIORITY getPriority(AttributeResolutionContext resolutionContext) {
+        if (backgroundRequesters.contains(resolutionContext.getAttributeRecipientID())) {
+            return HttpDataSource.PRIORITY.BACKGROUND;
+        }
+        if (resolutionContext.getParent() instanceof ProfileRequestContext) {
+            String profile = ((ProfileRequestContext) resolutionContext.getParent()).getProfileId();
+            if (profile != null && backgroundProfiles.contains(profile)) return HttpDataSource.PRIORITY.BACKGROUND;
+        }
+        return HttpDataSource.PRIORITY.INTERACTIVE;
+    }
+
+    /**
+     * Returns cached results, if fresh, or the results of a prefetch.
+     *
+     * @param queryString the query string
+     * @param timing receives the time spent waiting for a prefetch
+     * @param waitStart when, in System.nanoTime, the resolution started waiting
+     * @return the attributes, or null
+     * @throws ResolutionException if a prefetch is still running when resolveTimeout is up
+     */
+    private Map<String, IdPAttribute> getCachedAttributes(String queryString, ResourceTiming timing, long waitStart)
+            throws ResolutionException {
+        Cached cached = cache.get(queryString);
+        if (cached == null) return null;
+        if (cached.expires <= System.currentTimeMillis()) {
+            if (cache.remove(queryString, cached) && cached.task != null) cached.task.cancel(false);
+            return null;
+        }
+        if (cached.task != null) return usePrefetch(queryString, cached, timing, waitStart);
+        if (!cacheResults) return null;
+        log.debug("{} using cached results for {}", getLogPrefix(), queryString);
+        return new HashMap<String, IdPAttribute>(cached.attributes);
+    }
+
+    /**
+     * Use a prefetch's results, waiting for them at most what is left of resolveTimeout.
+     * They are then cached as this resolution's own would be, or, without cacheResults,
+     * dropped.
+     *
+     * @param queryString the query string
+     * @param cached the prefetch
+     * @param timing receives the time spent waiting
+     * @param waitStart when, in System.nanoTime, the resolution started waiting
+     * @return the attributes, or null if the prefetch failed and the call should be made
+     * @throws ResolutionException if the prefetch is still running when resolveTimeout is up
+     */
+    private Map<String, IdPAttribute> usePrefetch(String queryString, Cached cached, ResourceTiming timing,
+            long waitStart) throws ResolutionException {
+        long start = System.nanoTime();
+        try {
+            Map<String, IdPAttribute> attributes = resolveTimeout > 0 ?
+                    cached.task.get(Math.max(remainingNanos(waitStart), 0), TimeUnit.NANOSECONDS) :
+                    cached.task.get();
+            log.debug("{} using prefetched response", getLogPrefix());
+            if (cache.remove(queryString, cached) && cacheResults) {
+                setCachedAttributes(queryString, attributes, cached.timing.freshness);
+            }
+            return new HashMap<String, IdPAttribute>(attributes);
+        } catch (TimeoutException e) {
+            throw new ResolutionException(getLogPrefix() + " prefetched rws call timed out after " + resolveTimeout
+                    + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResolutionException(getLogPrefix() + " interrupted waiting for a prefetched rws call");
+        } catch (ExecutionException | CancellationException e) {
+            log.debug("{} prefetch failed: {}", getLogPrefix(), e.toString());
+            cache.remove(queryString, cached);
+            return null;
+        } finally {
+            timing.queueTime = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Cache results for as long as the response allows, within cacheMinTtl and cacheMaxTtl,
+     * or for cacheTtl if the response does not say.
+     *
+     * @param queryString the query string
+     * @param attributes the results
+     * @param freshness milliseconds from the response's cache headers, 0 if not to be reused,
+     *        -1 if they do not say
+     */
+    private void setCachedAttributes(String queryString, Map<String, IdPAttribute> attributes, long freshness) {
+        long ttl = freshness < 0 ? cacheTtl : freshness == 0 ? 0 : Math.max(cacheMinTtl, freshness);
+        ttl = Math.min(ttl, cacheMaxTtl);
+        if (ttl <= 0) return;
+        long now = System.currentTimeMillis();
+        makeRoom(now);
+        cache.put(queryString, new Cached(attributes, now + ttl));
+        log.debug("{} cached results for {} for {}ms", new Object[] {getLogPrefix(), queryString, ttl});
+    }
+
+    /**
+     * Make room in the cache, if full, by removing the expired entries and then those
+     * expiring soonest, down to three quarters full, so most inserts find room without
+     * a sweep.  Removed prefetches are cancelled.
+     *
+     * @param now the time
+     */
+    private synchronized void makeRoom(long now) {
+        if (cache.size() < cacheSize) return;
+        long[] expiries = new long[cache.size()];
+        int n = 0;
+        for (Cached cached : cache.values()) {
+            if (n == expiries.length) break;
+            expiries[n++] = cached.expires;
+        }
+        Arrays.sort(expiries, 0, n);
+        int excess = n - cacheSize * 3 / 4;
+        long cutoff = Math.max(now, excess > 0 ? expiries[excess - 1] : now);
+        Iterator<Cached> it = cache.values().iterator();
+        while (it.hasNext()) {
+            Cached cached = it.next();
+            if (cached.expires <= cutoff) {
+                it.remove();
+                if (cached.task != null) cached.task.cancel(false);
+            }
+        }
+        log.debug("{} cache full, {} entries left", getLogPrefix(), cache.size());
+    }
+
+    /**
+     * Cached results, or a prefetch whose results are not yet used.
+     */
+    private static class Cached {
+        final Map<String, IdPAttribute> attributes;
+        final long expires;
+
+        /** the prefetch call, null for results */
+        final FutureTask<Map<String, IdPAttribute>> task;
+
+        /** the prefetch call's timing, null for results */
+        final ResourceTiming timing;
+
+        Cached(Map<String, IdPAttribute> attributes, long expires) {
+            this.attributes = attributes;
+            this.expires = expires;
+            this.task = null;
+            this.timing = null;
+        }
+
+        Cached(FutureTask<Map<String, IdPAttribute>> task, ResourceTiming timing, long expires) {
+            this.attributes = null;
+            this.expires = expires;
+            this.task = task;
+            this.timing = timing;
+        }
+    }
+
+    /**
+     * Stop accepting prefetches and shut down the executor, if any.
+     */
+    @Override protected void doDestroy() {
+        prefetchConnectors.remove(getId(), this);
+        clearCache();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Log one line describing a slow resolution.
+     */
+    protected void logSlowResolution(AttributeResolutionContext resolutionContext, String queryString,
+            ResourceTiming timing) {
+        String url = requestUrl(queryString);
+        String principal = resolutionContext.getPrincipal();
+        if (redactPrincipal && principal != null && principal.length() > 0) {
+            url = redactPrincipal(url, principal);
+        }
+        log.warn("slow rws resolution: connector={} url={} status={} size={} total={}ms render={}ms queue={}ms "
+                + "lease={}ms network={}ms parse={}ms xpath={}ms",
+                new Object[] {getId(), url, timing.statusCode, timing.responseSize,
+                    ResourceTiming.millis(timing.getTotalTime()), ResourceTiming.millis(timing.renderTime),
+                    ResourceTiming.millis(timing.queueTime),
+                    ResourceTiming.millis(timing.leaseTime), ResourceTiming.millis(timing.networkTime),
+                    ResourceTiming.millis(timing.parseTime), ResourceTiming.millis(timing.xpathTime)});
+    }
+
+    /**
+     * Hide the principal in a url.  Each path segment and query parameter value is decoded,
+     * and the principal replaced where it is not part of a longer word.  Parts without the
+     * principal, and the scheme and host, are left as they are.
+     *
+     * @param url the url
+     * @param principal the principal name
+     * @return the url with the principal replaced by [principal]
+     */
+    static String redactPrincipal(String url, String principal) {
+        Pattern word = Pattern.compile("(?<![\\p{L}\\p{N}])" + Pattern.quote(principal) + "(?![\\p{L}\\p{N}])");
+        int query = url.indexOf('?');
+        String path = query >= 0 ? url.substring(0, query) : url;
+        int scheme = path.indexOf("://");
+        int pathStart = scheme >= 0 ? path.indexOf('/', scheme + 3) : 0;
+        if (pathStart < 0) pathStart = path.length();
+
+        StringBuilder sb = new StringBuilder(url.length());
+        sb.append(path, 0, pathStart);
+        String[] segments = path.substring(pathStart).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) sb.append('/');
+            sb.append(redactPart(segments[i], word));
+        }
+        if (query >= 0) {
+            sb.append('?');
+            String[] params = url.substring(query + 1).split("&", -1);
+            for (int i = 0; i < params.length; i++) {
+                if (i > 0) sb.append('&');
+                int eq = params[i].indexOf('=');
+                if (eq < 0) {
+                    sb.append(params[i]);
+                } else {
+                    sb.append(params[i], 0, eq + 1).append(redactPart(params[i].substring(eq + 1), word));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A url part, decoded with the principal replaced, or as it is if it does not hold the
+     * principal.
+     */
+    private static String redactPart(String part, Pattern word) {
+        String decoded;
+        try {
+            decoded = URLDecoder.decode(part, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            decoded = part;
+        }
+        Matcher m = word.matcher(decoded);
+        return m.find() ? m.replaceAll("[principal]") : part;
+    }
+
     /**
      * This queries the web service and return the resolved attributes.
      *
@@ -288,14 +958,38 @@ public class RwsDataConnector extends AbstractDataConnector {
      * @throws ResolutionException if an error occurs performing the search
      */
     protected Map<String, IdPAttribute> getRwsAttributes(String queryString) throws ResolutionException {
-      try {
-        String xml = httpDataSource.getResource(baseUrl + queryString);
+        return getRwsAttributes(queryString, new ResourceTiming());
+    }
 
-        /** The parser needs to be synchronized **/
-        Document doc = null;
-        synchronized(this) {
-                doc = documentBuilder.parse(new InputSource(new StringReader(xml)));
-        }
+    /**
+     * This queries the web service and return the resolved attributes.
+     *
+     * @param queryString <code>String</code> the queryString for the rest get
+     * @param timing receives the time spent in each phase
+     * @return <code>List</code> of results
+     * @throws ResolutionException if an error occurs performing the search
+     */
+    protected Map<String, IdPAttribute> getRwsAttributes(String queryString, ResourceTiming timing)
+            throws ResolutionException {
+        return getRwsAttributes(queryString, timing, null);
+    }
+
+    /**
+     * This queries the web service, or reuses a response of the same resolution, and
+     * returns the resolved attributes.
+     *
+     * @param queryString <code>String</code> the queryString for the rest get
+     * @param timing receives the time spent in each phase
+     * @param shared responses of this resolution, may be null
+     * @return <code>List</code> of results
+     * @throws ResolutionException if an error occurs performing the search
+     */
+    protected Map<String, IdPAttribute> getRwsAttributes(String queryString, ResourceTiming timing,
+            RwsResponseContext shared) throws ResolutionException {
+      try {
+        String url = requestUrl(queryString);
+        List<List<String>> matched = isPaged() ? fetchPages(url, timing, shared) : fetchMatches(url, timing, shared);
+        long start = System.nanoTime();
 
         Map<String, IdPAttribute> attributes = new HashMap<String, IdPAttribute>();
 
@@ -303,47 +997,303 @@ public class RwsDataConnector extends AbstractDataConnector {
         for (int i=0; i<rwsAttributes.size(); i++) {
            RwsAttribute attr = rwsAttributes.get(i);
 
-           Object result = attr.xpathExpression.evaluate(doc, XPathConstants.NODESET);
-           NodeList nodes = (NodeList) result;
-           log.debug("got {} matches to the xpath for {}", nodes.getLength(), attr.name);
+           List<String> results = matched.get(i);
+           if (maxResults>0 && maxResults+1<results.size()) {
+              log.warn("too many results for {}", attr.name);
+              results = results.subList(0, maxResults+1);
+           }
+           log.debug("got {} matches to the xpath for {}", results.size(), attr.name);
 
-           List<String> results = new Vector<String>();
-           if (nodes.getLength()==0 && attr.noResultIsError) {
+           if (results.size()==0 && attr.noResultIsError) {
               log.error("got no attributes for {}, which required attriubtes", attr.name);
               throw new ResolutionException("no attributes for " + attr.name);
            }
-           for (int j = 0; j < nodes.getLength(); j++) {
-              if (maxResults>0 && maxResults<j) {
-                  log.error("too many results for {}", attr.name);
-                  break;
-              }
-              results.add((String)nodes.item(j).getTextContent());
-           }
-           addIdPAttributes(attributes, attr.name, results);
+           addIdPAttributes(attributes, attr.name, results, attr.shareValues);
+           if (projectedMatched != null && results.size() > 0) projectedMatched[i] = true;
         }
+        timing.xpathTime += System.nanoTime() - start;
+        if (projectedMatched != null) checkProjection();
         return attributes;
 
       } catch (IOException e) {
-          log.error("rws io exception: " + e);
+          log.error("{} rws io exception: {}", getLogPrefix(), e.toString());
           throw new ResolutionException("rws resolver io error: " + e.getMessage());
       } catch (SAXException e) {
-          log.error("rws sax exception: " + e);
+          log.error("{} rws sax exception: {}", getLogPrefix(), e.toString());
           throw new ResolutionException("rws resolver parse error: " + e.getMessage());
       } catch (IllegalArgumentException e) {
-          log.error("rws arg exception: " + e);
+          log.error("{} rws arg exception: {}", getLogPrefix(), e.toString());
           throw new ResolutionException(e.getMessage());
       } catch (XPathExpressionException e) {
-          log.error("rws xpath exception: " + e);
+          log.error("{} rws xpath exception: {}", getLogPrefix(), e.toString());
           throw new ResolutionException(e.getMessage());
       }
 
     }
 
+    /**
+     * Fetch one response, or reuse one of the same resolution, and match the attributes'
+     * paths, and the next page path if any, against it.
+     *
+     * @param url the url
+     * @param timing receives the time spent in each phase
+     * @param shared responses of this resolution, may be null
+     * @return per path list of values
+     */
+    protected List<List<String>> fetchMatches(String url, ResourceTiming timing, RwsResponseContext shared)
+            throws ResolutionException, IOException, SAXException, XPathExpressionException {
+        long start;
+        Document doc = null;
+        List<List<String>> matched;
+        Object response = shared != null ? shared.getResponse(httpDataSource, url) : null;
+        if (response != null) {
+            log.debug("{} reusing the response to {}", getLogPrefix(), url);
+            /* so the results are cached no longer than the response allows */
+            timing.freshness = shared.getFreshness(httpDataSource, url);
+        }
+
+        if (responseFormat == RESPONSE_FORMAT.JSON && shared != null) {
+            /* other connectors may need the text, so it is read whole */
+            String content = response instanceof String ? (String) response : null;
+            if (content == null) {
+                content = httpDataSource.getResource(url, timing, JsonResponseReader.TEXT);
+                if (content == null) {
+                    throw new ResolutionException(getLogPrefix() + " no response from " + url);
+                }
+                shared.setResponse(httpDataSource, url, content, timing.freshness);
+            }
+            start = System.nanoTime();
+            matched = jsonMatcher.evaluate(new StringReader(content));
+            timing.parseTime = System.nanoTime() - start;
+            return matched;
+        } else if (responseFormat == RESPONSE_FORMAT.JSON) {
+            /* json paths are matched while the response streams in, parse time is in the network time */
+            matched = httpDataSource.getResource(url, timing, jsonReader);
+            if (matched == null) {
+                throw new ResolutionException(getLogPrefix() + " no response from " + url);
+            }
+            return matched;
+        } else if (response instanceof Document) {
+            doc = (Document) response;
+        } else {
+            String content = httpDataSource.getResource(url, timing);
+            if (content == null) {
+                throw new ResolutionException(getLogPrefix() + " no response from " + url);
+            }
+
+            start = System.nanoTime();
+            doc = parse(content);
+            timing.parseTime = System.nanoTime() - start;
+            if (shared != null) shared.setResponse(httpDataSource, url, doc, timing.freshness);
+        }
+
+        /* simple xpaths in one pass, others one by one */
+        start = System.nanoTime();
+        matched = pathMatcher.evaluate(doc);
+        for (int i = 0; i < matched.size(); i++) {
+            if (matched.get(i) == null) matched.set(i, evaluateXPath(matchAttributes.get(i), doc));
+        }
+        timing.xpathTime = System.nanoTime() - start;
+        return matched;
+    }
+
+    /**
+     * Parse a response with an idle parser, or a new one if all are in use.  Parsers are
+     * not thread safe, and one shared parser would serialize the parses of VIRTUAL mode
+     * and pin its carrier threads while they wait.
+     */
+    private Document parse(String content) throws ResolutionException, IOException, SAXException {
+        DocumentBuilder builder = documentBuilders.poll();
+        if (builder == null) {
+            try {
+                builder = domFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new ResolutionException(getLogPrefix() + " no xml parser", e);
+            }
+        }
+        try {
+            return builder.parse(new InputSource(new StringReader(content)));
+        } finally {
+            builder.reset();
+            documentBuilders.offer(builder);
+        }
+    }
+
+    /**
+     * Whether responses are paged
+     */
+    protected boolean isPaged() {
+        return nextPagePath != null || pageStartParameter != null;
+    }
+
+    /**
+     * Fetch pages in turn, following the next page link or advancing the page start,
+     * until a page is the last, every attribute has its maxResultSize values, or maxPages
+     * have been read.  Each page is matched and discarded before the next is fetched.
+     *
+     * @param url the url of the first page
+     * @param timing receives the total time spent in each phase
+     * @param shared responses of this resolution, may be null
+     * @return per attribute list of values
+     */
+    protected List<List<String>> fetchPages(String url, ResourceTiming timing, RwsResponseContext shared)
+            throws ResolutionException, IOException, SAXException, XPathExpressionException {
+        List<List<String>> all = new ArrayList<List<String>>(rwsAttributes.size());
+        for (int i = 0; i < rwsAttributes.size(); i++) {
+            all.add(new ArrayList<String>());
+        }
+        String pageUrl = nextPagePath != null ? url : pageUrl(url, firstPageStart);
+        int page = 0;
+        while (pageUrl != null && page < maxPages) {
+            ResourceTiming pageTiming = new ResourceTiming();
+            pageTiming.priority = timing.priority;
+            List<List<String>> matched = fetchMatches(pageUrl, pageTiming, shared);
+            timing.add(pageTiming);
+            page++;
+
+            int most = 0;
+            boolean full = true;
+            for (int i = 0; i < rwsAttributes.size(); i++) {
+                List<String> values = matched.get(i);
+                int limit = rwsAttributes.get(i).maxResultSize;
+                most = Math.max(most, values.size());
+                List<String> dest = all.get(i);
+                for (int j = 0; j < values.size() && (limit <= 0 || dest.size() < limit); j++) {
+                    dest.add(values.get(j));
+                }
+                if (limit <= 0 || dest.size() < limit) full = false;
+            }
+            if (full) break;
+
+            if (nextPagePath != null) {
+                List<String> next = matched.get(rwsAttributes.size());
+                pageUrl = next.isEmpty() || next.get(0).trim().length() == 0 ? null
+                        : new URL(new URL(pageUrl), next.get(0).trim()).toString();
+            } else {
+                pageUrl = most < pageSize ? null : pageUrl(url, firstPageStart + page * pageSize);
+            }
+        }
+        if (pageUrl != null && page == maxPages) {
+            log.warn("{} stopped after {} pages of {}", new Object[] {getLogPrefix(), maxPages, url});
+        }
+        log.debug("{} read {} pages", getLogPrefix(), page);
+        return all;
+    }
+
+    /**
+     * The url of the page starting at an offset
+     */
+    private String pageUrl(String url, int pageStart) {
+        StringBuilder sb = new StringBuilder(url);
+        sb.append(url.indexOf('?') >= 0 ? '&' : '?');
+        sb.append(pageStartParameter).append('=').append(pageStart);
+        if (pageSizeParameter != null) sb.append('&').append(pageSizeParameter).append('=').append(pageSize);
+        return sb.toString();
+    }
+
+    /**
+     * The URL of a query, with the field projection if any
+     */
+    protected String requestUrl(String queryString) {
+        String url = baseUrl + queryString;
+        if (fieldsQuery == null) return url;
+        return url + (url.indexOf('?') >= 0 ? "&" : "?") + fieldsQuery;
+    }
+
+    /**
+     * Build the field projection parameter from the fields setting, or the attributes'
+     * fields, or the first names of their json paths.
+     */
+    private String buildFieldsQuery() throws ComponentInitializationException {
+        Set<String> names = new LinkedHashSet<String>();
+        if (fields != null) {
+            for (String field : fields.split(",")) {
+                if (field.trim().length() > 0) names.add(field.trim());
+            }
+        } else {
+            for (RwsAttribute attr : rwsAttributes) {
+                String field = attr.field;
+                if (field == null && attr.jsonPath != null) field = firstJsonName(attr.jsonPath);
+                if (field == null) {
+                    throw new ComponentInitializationException(getLogPrefix() + " attribute " + attr.name
+                            + " has no field for " + fieldsParameter);
+                }
+                names.add(field);
+            }
+            if (nextPagePath != null && firstJsonName(nextPagePath) != null) {
+                names.add(firstJsonName(nextPagePath));
+            }
+        }
+        StringBuilder sb = new StringBuilder(URLEncodingReferenceInsertionEventHandler.encode(fieldsParameter));
+        sb.append('=');
+        String sep = "";
+        for (String name : names) {
+            sb.append(sep).append(URLEncodingReferenceInsertionEventHandler.encode(name));
+            sep = ",";
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The first name in a json path, e.g. data in $.data[*].id
+     */
+    private static String firstJsonName(String jsonPath) {
+        Matcher m = FIRST_JSON_NAME.matcher(jsonPath.trim());
+        return m.lookingAt() ? (m.group(1) != null ? m.group(1) : m.group(2)) : null;
+    }
+
+    /**
+     * Once enough projected responses have been seen, warn of attributes that never
+     * matched: the projection may be removing them.
+     */
+    private void checkProjection() {
+        if (projectedResponses.incrementAndGet() != PROJECTION_CHECKS) return;
+        for (int i = 0; i < projectedMatched.length; i++) {
+            if (!projectedMatched[i]) {
+                log.warn("{} attribute {} matched nothing in {} responses requested with {}; check its field",
+                        new Object[] {getLogPrefix(), rwsAttributes.get(i).name, PROJECTION_CHECKS, fieldsQuery});
+            }
+        }
+    }
+
+    /**
+     * Evaluate an xpath the matcher does not handle
+     *
+     * @param attr the attribute
+     * @param doc the response document
+     * @return the values
+     */
+    protected List<String> evaluateXPath(RwsAttribute attr, Document doc) throws XPathExpressionException {
+        NodeList nodes = (NodeList) attr.xpathExpression.evaluate(doc, XPathConstants.NODESET);
+        List<String> results = new ArrayList<String>(nodes.getLength());
+        for (int j = 0; j < nodes.getLength(); j++) {
+           if (attr.maxResultSize>0 && attr.maxResultSize==j) {
+               break;
+           }
+           if (maxResults>0 && maxResults<j) {
+               log.warn("too many results for {}", attr.name);
+               break;
+           }
+           results.add((String)nodes.item(j).getTextContent());
+        }
+        return results;
+    }
+
     /**
      * This adds an attribute name and value to the IdP's list of attributes
      *
      */
     protected void addIdPAttributes(Map<String, IdPAttribute> attributes, String name, List<String> results) {
+        addIdPAttributes(attributes, name, results, false);
+    }
+
+    /**
+     * This adds an attribute name and value to the IdP's list of attributes, taking the
+     * values from the value pool if shared
+     *
+     */
+    protected void addIdPAttributes(Map<String, IdPAttribute> attributes, String name, List<String> results,
+            boolean shared) {
 
         if (results.size()>0) {
 
@@ -351,7 +1301,7 @@ public class RwsDataConnector extends AbstractDataConnector {
 
         List<IdPAttributeValue<?>> values = new ArrayList<>(results.size());
         for(String result : results){
-            values.add(new StringAttributeValue(result));
+            values.add(shared && valuePool != null ? valuePool.get(result) : new StringAttributeValue(result));
         }
         attribute.setValues(values);
         attributes.put(name, attribute);
@@ -363,6 +1313,16 @@ public class RwsDataConnector extends AbstractDataConnector {
     /** Property setters */
 
 
+    /**
+     * This sets the response format.  If not set, JSON is used when the
+     * data source's accept header asks for json, XML otherwise.
+     *
+     * @param format the format
+     */
+    public void setResponseFormat(RESPONSE_FORMAT format) {
+        responseFormat = format;
+    }
+
     /**
      * This sets the http data source bean
      */
@@ -449,6 +1409,240 @@ public class RwsDataConnector extends AbstractDataConnector {
        rwsAttributes = list;
     }
 
+    /**
+     * This sets which threads make the web service calls.
+     *
+     * @param mode the execution mode
+     */
+    public void setExecutionMode(EXECUTION_MODE mode) {
+        executionMode = mode;
+    }
+
+    /**
+     * This sets the maximum calls in flight in VIRTUAL mode.
+     *
+     * @param i <code>int</code> max calls
+     */
+    public void setMaxInFlight(int i) {
+        maxInFlight = i;
+    }
+
+    /**
+     * This sets how long, in milliseconds, a resolution waits in VIRTUAL mode, for a free
+     * slot and the response together.  A value of 0 waits indefinitely.
+     *
+     * @param i <code>long</code> milliseconds
+     */
+    public void setResolveTimeout(long i) {
+        resolveTimeout = i;
+    }
+
+    /**
+     * This sets the profiles, comma separated, whose resolutions are background work,
+     * shed first when the data source has admissionControl.
+     *
+     * @param s <code>String</code> profile ids
+     */
+    public void setBackgroundProfiles(String s) {
+        backgroundProfiles = splitSet(s);
+    }
+
+    /**
+     * This sets the requesters, comma separated entity ids, whose resolutions are
+     * background work.
+     *
+     * @param s <code>String</code> entity ids
+     */
+    public void setBackgroundRequesters(String s) {
+        backgroundRequesters = splitSet(s);
+    }
+
+    /**
+     * Split a comma separated list
+     */
+    private static Set<String> splitSet(String s) {
+        Set<String> set = new HashSet<String>();
+        if (s == null) return set;
+        for (String item : s.split(",")) {
+            if (item.trim().length() > 0) set.add(item.trim());
+        }
+        return set;
+    }
+
+    /**
+     * This sets whether results are cached, for as long as the responses' Cache-Control or
+     * Expires headers allow.
+     *
+     * @param b <code>boolean</code>
+     */
+    public void setCacheResults(boolean b) {
+        cacheResults = b;
+        clearCache();
+    }
+
+    /**
+     * This sets how long, in milliseconds, results are cached when the response has no
+     * cache headers.  0, the default, is not at all.
+     *
+     * @param l <code>long</code> milliseconds
+     */
+    public void setCacheTtl(long l) {
+        cacheTtl = l;
+    }
+
+    /**
+     * This sets the least time, in milliseconds, results are cached.  Responses that
+     * forbid caching are still not cached.
+     *
+     * @param l <code>long</code> milliseconds
+     */
+    public void setCacheMinTtl(long l) {
+        cacheMinTtl = l;
+    }
+
+    /**
+     * This sets the most time, in milliseconds, results are cached.
+     *
+     * @param l <code>long</code> milliseconds
+     */
+    public void setCacheMaxTtl(long l) {
+        cacheMaxTtl = l;
+    }
+
+    /**
+     * This sets the most results cached at once.  When full, those expiring soonest are
+     * removed.
+     *
+     * @param i <code>int</code> results
+     */
+    public void setCacheSize(int i) {
+        cacheSize = i;
+    }
+
+    /**
+     * This sets the path, an xPath or jsonPath as the response format, of the next page's
+     * link.  Pages are followed until one has no link.
+     *
+     * @param s <code>String</code> path
+     */
+    public void setNextPagePath(String s) {
+        nextPagePath = s;
+    }
+
+    /**
+     * This sets the query parameter of the page start offset.  Pages are read until one
+     * has fewer than pageSize values.
+     *
+     * @param s <code>String</code> parameter name
+     */
+    public void setPageStartParameter(String s) {
+        pageStartParameter = s;
+    }
+
+    /**
+     * This sets the query parameter of the page size.
+     *
+     * @param s <code>String</code> parameter name
+     */
+    public void setPageSizeParameter(String s) {
+        pageSizeParameter = s;
+    }
+
+    /**
+     * This sets the values per page.
+     *
+     * @param i <code>int</code> page size
+     */
+    public void setPageSize(int i) {
+        pageSize = i;
+    }
+
+    /**
+     * This sets the offset of the first page, e.g. 1 if pages count from 1.
+     *
+     * @param i <code>int</code> offset
+     */
+    public void setFirstPageStart(int i) {
+        firstPageStart = i;
+    }
+
+    /**
+     * This sets the most pages read per resolution.
+     *
+     * @param i <code>int</code> pages
+     */
+    public void setMaxPages(int i) {
+        maxPages = i;
+    }
+
+    /**
+     * This sets the query parameter through which the service limits the fields it returns.
+     * When set, the fields the attributes need are requested.
+     *
+     * @param s <code>String</code> parameter name
+     */
+    public void setFieldsParameter(String s) {
+        fieldsParameter = s;
+    }
+
+    /**
+     * This sets the fields requested, comma separated, in place of those of the attributes.
+     *
+     * @param s <code>String</code> fields
+     */
+    public void setFields(String s) {
+        fields = s;
+    }
+
+    /**
+     * This sets whether responses are shared with other connectors, using the same data
+     * source and URL, in the same resolution.
+     *
+     * @param b <code>boolean</code>
+     */
+    public void setShareResponses(boolean b) {
+        shareResponses = b;
+    }
+
+    /**
+     * This sets how long a prefetched response is kept, in the results cache, for the
+     * resolution that will use it.  A value of 0 disables prefetch.
+     *
+     * @param i <code>long</code> milliseconds
+     */
+    public void setPrefetchTtl(long i) {
+        prefetchTtl = i;
+    }
+
+    /**
+     * This sets how many distinct values of the attributes with shareValues are shared
+     * between resolutions.  A value of 0 creates new values for every resolution.
+     *
+     * @param i <code>int</code> max shared values
+     */
+    public void setValuePoolSize(int i) {
+        valuePoolSize = i;
+    }
+
+    /**
+     * This sets the threshold, in milliseconds, above which a resolution is logged
+     * with its per-phase times.  A value of 0 disables the log.
+     *
+     * @param t <code>long</code> milliseconds
+     */
+    public void setSlowResolutionThreshold(long t) {
+        slowResolutionThreshold = t;
+    }
+
+    /**
+     * This sets whether the principal is hidden in the slow resolution log
+     *
+     * @param b <code>boolean</code>
+     */
+    public void setRedactPrincipal(boolean b) {
+        redactPrincipal = b;
+    }
+
     /**
      * Sets the builder used to create the executable searches.
      *
@@ -462,6 +1656,7 @@ public class RwsDataConnector extends AbstractDataConnector {
     }
 
    private void clearCache() {
+       cache.clear();
    }
 
 }
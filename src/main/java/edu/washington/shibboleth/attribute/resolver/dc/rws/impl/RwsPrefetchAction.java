@@ -0,0 +1,141 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+
+import net.shibboleth.idp.authn.AbstractAuthenticationAction;
+import net.shibboleth.idp.authn.AuthenticationResult;
+import net.shibboleth.idp.authn.context.AuthenticationContext;
+import net.shibboleth.idp.authn.context.SubjectCanonicalizationContext;
+import net.shibboleth.idp.authn.principal.UsernamePrincipal;
+
+/**
+ * <code>RwsPrefetchAction</code> is a login flow action that starts the web service calls of
+ * RWS data connectors as soon as the user is validated, so the call overlaps the rest of the
+ * login rather than following it.  Run it after the validation action: by default it reads
+ * the validated principal, and does nothing before there is one.
+ *
+ * Only connectors with a prefetchTtl, whose query needs nothing but the principal name, are
+ * prefetched.  The action never fails the flow.
+ */
+public class RwsPrefetchAction extends AbstractAuthenticationAction {
+
+    /** Class logger. */
+    private static Logger log = LoggerFactory.getLogger(RwsPrefetchAction.class);
+
+    /** Ids of the connectors to prefetch, null for all */
+    private List<String> connectorIds;
+
+    /** Finds the principal name */
+    @Nonnull private Function<ProfileRequestContext, String> principalNameLookupStrategy =
+            new ValidatedPrincipalLookup();
+
+    /**
+     * Start the prefetches.
+     */
+    @Override protected void doExecute(@Nonnull final ProfileRequestContext profileRequestContext,
+            @Nonnull final AuthenticationContext authenticationContext) {
+        final String principal;
+        try {
+            principal = principalNameLookupStrategy.apply(profileRequestContext);
+        } catch (RuntimeException e) {
+            log.debug("{} no principal name to prefetch: {}", getLogPrefix(), e.toString());
+            return;
+        }
+        if (principal == null || principal.isEmpty()) return;
+
+        if (connectorIds == null) {
+            final Collection<RwsDataConnector> connectors = RwsDataConnector.getPrefetchConnectors();
+            for (final RwsDataConnector connector : connectors) {
+                prefetch(connector, principal);
+            }
+        } else {
+            for (final String id : connectorIds) {
+                final RwsDataConnector connector = RwsDataConnector.getPrefetchConnector(id);
+                if (connector != null) prefetch(connector, principal);
+            }
+        }
+    }
+
+    /**
+     * Start one prefetch, logging rather than throwing errors.
+     */
+    private void prefetch(final RwsDataConnector connector, final String principal) {
+        try {
+            connector.prefetch(principal);
+        } catch (RuntimeException e) {
+            log.debug("{} prefetch by {} failed: {}", new Object[] {getLogPrefix(), connector.getId(), e.toString()});
+        }
+    }
+
+    /**
+     * This sets the ids of the connectors to prefetch.  By default all connectors with a
+     * prefetchTtl are.
+     *
+     * @param ids connector ids
+     */
+    public void setConnectorIds(@Nullable final List<String> ids) {
+        connectorIds = ids;
+    }
+
+    /**
+     * This sets how the principal name is found.  The default is the subject canonicalization
+     * result if there is one, otherwise the user name of the validated
+     * {@link AuthenticationResult}.
+     *
+     * @param strategy lookup strategy
+     */
+    public void setPrincipalNameLookupStrategy(@Nonnull final Function<ProfileRequestContext, String> strategy) {
+        principalNameLookupStrategy = strategy;
+    }
+
+    /**
+     * Finds the validated principal name: the subject canonicalization result, or the user
+     * name of the authentication result.  Null before validation.
+     */
+    private static class ValidatedPrincipalLookup implements Function<ProfileRequestContext, String> {
+
+        /** {@inheritDoc} */
+        @Nullable public String apply(@Nullable final ProfileRequestContext input) {
+            if (input == null) return null;
+            final SubjectCanonicalizationContext c14nContext =
+                    input.getSubcontext(SubjectCanonicalizationContext.class);
+            if (c14nContext != null && c14nContext.getPrincipalName() != null) {
+                return c14nContext.getPrincipalName();
+            }
+            final AuthenticationContext authenticationContext = input.getSubcontext(AuthenticationContext.class);
+            if (authenticationContext == null) return null;
+            final AuthenticationResult result = authenticationContext.getAuthenticationResult();
+            if (result == null) return null;
+            final Set<UsernamePrincipal> names = result.getSubject().getPrincipals(UsernamePrincipal.class);
+            return names.isEmpty() ? null : names.iterator().next().getName();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.opensaml.messaging.context.BaseContext;
+
+import edu.washington.shibboleth.attribute.resolver.dc.rws.HttpDataSource;
+
+/**
+ * <code>RwsResponseContext</code> holds the responses fetched during one attribute resolution,
+ * by data source and URL, so connectors requesting the same URL share one call and parse.
+ *
+ * It is a subcontext of the AttributeResolutionContext and lives as long as that does.
+ */
+public class RwsResponseContext extends BaseContext {
+
+    /** responses by data source and url */
+    private final Map<HttpDataSource, Map<String, Response>> responses =
+            new HashMap<HttpDataSource, Map<String, Response>>();
+
+    /**
+     * Get a response.
+     *
+     * @param source the data source
+     * @param url the url
+     * @return the parsed document or response text, or null
+     */
+    @Nullable public synchronized Object getResponse(@Nonnull final HttpDataSource source,
+            @Nonnull final String url) {
+        final Response response = find(source, url);
+        return response != null ? response.content : null;
+    }
+
+    /**
+     * Get the freshness of a response.
+     *
+     * @param source the data source
+     * @param url the url
+     * @return milliseconds from the response's cache headers, 0 if not to be reused,
+     *         -1 if they do not say or there is no response
+     */
+    public synchronized long getFreshness(@Nonnull final HttpDataSource source, @Nonnull final String url) {
+        final Response response = find(source, url);
+        return response != null ? response.freshness : -1;
+    }
+
+    /**
+     * Save a response.
+     *
+     * @param source the data source
+     * @param url the url
+     * @param response the parsed document or response text
+     * @param freshness milliseconds from the response's cache headers, 0 if not to be reused,
+     *        -1 if they do not say
+     */
+    public synchronized void setResponse(@Nonnull final HttpDataSource source, @Nonnull final String url,
+            @Nonnull final Object response, final long freshness) {
+        Map<String, Response> byUrl = responses.get(source);
+        if (byUrl == null) {
+            byUrl = new HashMap<String, Response>();
+            responses.put(source, byUrl);
+        }
+        byUrl.put(url, new Response(response, freshness));
+    }
+
+    /**
+     * Find a response.
+     */
+    @Nullable private Response find(@Nonnull final HttpDataSource source, @Nonnull final String url) {
+        final Map<String, Response> byUrl = responses.get(source);
+        return byUrl != null ? byUrl.get(url) : null;
+    }
+
+    /**
+     * A response and its freshness.
+     */
+    private static class Response {
+        final Object content;
+        final long freshness;
+
+        Response(Object content, long freshness) {
+            this.content = content;
+            this.freshness = freshness;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.velocity.app.event.ReferenceInsertionEventHandler;
+
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+
+/**
+ * <code>SimpleTemplate</code> renders query templates that need no Velocity directives by
+ * concatenating precompiled segments.
+ *
+ * A template is simple when it has no <code>#</code> or <code>\</code> and each reference is one of
+ * the principal or entity ids of the resolution (via <code>requestContext</code> or
+ * <code>resolutionContext</code>), or a bare dependency name.  Rendering matches Velocity:
+ * a null reference is left as written, or omitted if quiet (<code>$!</code>), and a dependency renders
+ * as its value list.
+ */
+public class SimpleTemplate {
+
+    /** a reference, braced or not, with an optional property chain */
+    private static final Pattern REFERENCE = Pattern.compile(
+            "\\$(!)?(?:\\{([A-Za-z][\\w-]*)((?:\\.[A-Za-z][\\w-]*)*)\\}|([A-Za-z][\\w-]*)((?:\\.[A-Za-z][\\w-]*)*))");
+
+    /** reference kinds */
+    private static final int LITERAL = 0;
+    private static final int PRINCIPAL = 1;
+    private static final int RECIPIENT = 2;
+    private static final int ISSUER = 3;
+    private static final int DEPENDENCY = 4;
+
+    /** the compiled segments */
+    private final Segment[] segments;
+
+    /** total literal length, to size the builder */
+    private final int literalLength;
+
+    private SimpleTemplate(List<Segment> list) {
+        segments = list.toArray(new Segment[list.size()]);
+        int len = 0;
+        for (Segment seg : segments) {
+            if (seg.kind == LITERAL) len += seg.text.length();
+        }
+        literalLength = len;
+    }
+
+    /**
+     * Compile a template.
+     *
+     * @param text the template text
+     * @param v2Compatibility whether <code>requestContext</code> is available
+     * @return the compiled template, or null if Velocity is needed
+     */
+    @Nullable public static SimpleTemplate compile(@Nonnull final String text, final boolean v2Compatibility) {
+        if (text.indexOf('#') >= 0 || text.indexOf('\\') >= 0) return null;
+
+        List<Segment> segments = new ArrayList<Segment>();
+        StringBuilder literal = new StringBuilder();
+        Matcher m = REFERENCE.matcher(text);
+        int pos = 0;
+        while (pos < text.length()) {
+            int dollar = text.indexOf('$', pos);
+            if (dollar < 0) {
+                literal.append(text, pos, text.length());
+                break;
+            }
+            literal.append(text, pos, dollar);
+            if (!m.find(dollar) || m.start() != dollar) {
+                // a $ that starts no reference is literal, unless it may be something more complex
+                int next = dollar + 1;
+                if (next < text.length() && text.charAt(next) == '!') next++;
+                if (next < text.length() && (text.charAt(next) == '{' || Character.isLetter(text.charAt(next)))) {
+                    return null;
+                }
+                literal.append('$');
+                pos = dollar + 1;
+                continue;
+            }
+            boolean braced = m.group(2) != null;
+            String root = braced ? m.group(2) : m.group(4);
+            String chain = braced ? m.group(3) : m.group(5);
+            if (!braced && m.end() < text.length()) {
+                char c = text.charAt(m.end());
+                if (c == '(' || c == '[') return null;
+            }
+            int kind = referenceKind(root, chain, v2Compatibility);
+            if (kind < 0) return null;
+
+            if (literal.length() > 0) {
+                segments.add(new Segment(LITERAL, literal.toString(), null, false));
+                literal.setLength(0);
+            }
+            segments.add(new Segment(kind, m.group(), root, m.group(1) != null));
+            pos = m.end();
+        }
+        if (literal.length() > 0) {
+            segments.add(new Segment(LITERAL, literal.toString(), null, false));
+        }
+        return new SimpleTemplate(segments);
+    }
+
+    /**
+     * Classify a reference.
+     *
+     * @return the kind, or -1 if the reference needs Velocity
+     */
+    private static int referenceKind(String root, String chain, boolean v2Compatibility) {
+        if ("requestContext".equals(root) && v2Compatibility) {
+            if (".principalName".equals(chain)) return PRINCIPAL;
+            if (".inboundMessageIssuer".equals(chain)) return RECIPIENT;
+            if (".outboundMessageIssuer".equals(chain)) return ISSUER;
+            return -1;
+        }
+        if ("resolutionContext".equals(root)) {
+            if (".principal".equals(chain)) return PRINCIPAL;
+            if (".attributeRecipientID".equals(chain)) return RECIPIENT;
+            if (".attributeIssuerID".equals(chain)) return ISSUER;
+            return -1;
+        }
+        if ("requestContext".equals(root)) return -1;
+        return chain.length() == 0 ? DEPENDENCY : -1;
+    }
+
+    /**
+     * Render the template.
+     *
+     * @param resolutionContext the resolution context
+     * @param dependencyAttributes the dependency values
+     * @param handler reference insertion handler, may be null
+     * @return the rendered text
+     */
+    public String render(@Nonnull final AttributeResolutionContext resolutionContext,
+            @Nullable final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes,
+            @Nullable final ReferenceInsertionEventHandler handler) {
+        StringBuilder sb = new StringBuilder(literalLength + 32);
+        for (Segment seg : segments) {
+            Object value;
+            switch (seg.kind) {
+                case LITERAL:
+                    sb.append(seg.text);
+                    continue;
+                case PRINCIPAL:
+                    value = resolutionContext.getPrincipal();
+                    break;
+                case RECIPIENT:
+                    value = resolutionContext.getAttributeRecipientID();
+                    break;
+                case ISSUER:
+                    value = resolutionContext.getAttributeIssuerID();
+                    break;
+                default:
+                    value = dependencyValues(dependencyAttributes, seg.name);
+            }
+            if (handler != null) value = handler.referenceInsert(seg.text, value);
+            if (value != null) {
+                sb.append(value);
+            } else if (!seg.quiet) {
+                sb.append(seg.text);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Unwrap one dependency's values, as the Velocity context would hold them.
+     */
+    private static List<Object> dependencyValues(Map<String, List<IdPAttributeValue<?>>> dependencyAttributes,
+            String name) {
+        if (dependencyAttributes == null) return null;
+        List<IdPAttributeValue<?>> values = dependencyAttributes.get(name);
+        if (values == null) return null;
+        List<Object> list = new ArrayList<>(values.size());
+        for (IdPAttributeValue<?> value : values) {
+            list.add(value.getValue());
+        }
+        return list;
+    }
+
+    /**
+     * Literal text or a reference.
+     */
+    private static class Segment {
+        /** LITERAL or the reference kind */
+        private final int kind;
+        /** literal text, or the reference as written */
+        private final String text;
+        /** dependency name */
+        private final String name;
+        /** whether the reference is quiet */
+        private final boolean quiet;
+
+        Segment(int kind, String text, String name, boolean quiet) {
+            this.kind = kind;
+            this.text = text;
+            this.name = name;
+            this.quiet = quiet;
+        }
+    }
+}
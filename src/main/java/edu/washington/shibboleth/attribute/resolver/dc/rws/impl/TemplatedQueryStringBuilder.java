@@ -19,8 +19,12 @@ package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -54,6 +58,13 @@ public class TemplatedQueryStringBuilder extends AbstractInitializableComponent
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(TemplatedQueryStringBuilder.class);
 
+    /** Start of a reference: $name, ${name} or $!name. */
+    private static final Pattern REFERENCE_NAME = Pattern.compile("\\$!?\\{?([A-Za-z][\\w-]*)");
+
+    /** A use of a context and the property read, if any. */
+    private static final Pattern CONTEXT_PROPERTY =
+            Pattern.compile("\\b(?:requestContext|resolutionContext)\\b(?:\\.(\\w+))?");
+
     /** Template to be evaluated. */
     private Template template;
 
@@ -70,6 +81,15 @@ public class TemplatedQueryStringBuilder extends AbstractInitializableComponent
     /** Do we need to make ourself V2 Compatible? */
     private boolean v2Compatibility;
 
+    /** Compiled form of the template if it needs no Velocity. */
+    private SimpleTemplate simpleTemplate;
+
+    /** Names the template references. */
+    private Set<String> referencedNames;
+
+    /** Whether the principal name is the only input. */
+    private boolean principalOnly;
+
     /**
      * Gets the template to be evaluated.
      * 
@@ -157,6 +177,16 @@ public class TemplatedQueryStringBuilder extends AbstractInitializableComponent
         v2Compatibility = compat;
     }
 
+    /**
+     * Does the template depend on nothing but the principal name, so it can be rendered
+     * before resolution?
+     *
+     * @return whether the principal name is the only input
+     */
+    public boolean isPrincipalOnly() {
+        return principalOnly;
+    }
+
     /**
      * Invokes {@link Template#merge(org.apache.velocity.context.Context)} on the supplied context.
      * 
@@ -175,28 +205,23 @@ public class TemplatedQueryStringBuilder extends AbstractInitializableComponent
      */
     protected String getQueryString(@Nonnull final AttributeResolutionContext resolutionContext,
             @Nonnull final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) {
-        final VelocityContext context = new VelocityContext();
+        if (simpleTemplate != null) {
+            final String result = simpleTemplate.render(resolutionContext, dependencyAttributes, eventHandler);
+            log.debug("Template text {} yields {}", templateText, result);
+            return result;
+        }
+
+        // dependencies are unwrapped only when the template asks for them
+        final VelocityContext context = new LazyDependencyContext(dependencyAttributes, referencedNames);
         log.trace("Creating query string filter using attribute resolution context {}", resolutionContext);
         context.put("resolutionContext", resolutionContext);
 
-        if (isV2Compatibility()) {
+        if (isV2Compatibility() && referencedNames.contains("requestContext")) {
             final V2SAMLProfileRequestContext requestContext = new V2SAMLProfileRequestContext(resolutionContext, null);
             log.trace("Adding v2 request context {}", requestContext);
             context.put("requestContext", requestContext);
         }
 
-        // inject dependencies
-        if (dependencyAttributes != null && !dependencyAttributes.isEmpty()) {
-            for (final Map.Entry<String, List<IdPAttributeValue<?>>> entry : dependencyAttributes.entrySet()) {
-                final List<Object> values = new ArrayList<>(entry.getValue().size());
-                for (final IdPAttributeValue<?> value : entry.getValue()) {
-                    values.add(value.getValue());
-                }
-                log.trace("Adding dependency {} to context with {} value(s)", entry.getKey(), values.size());
-                context.put(entry.getKey(), values);
-            }
-        }
-
         if (eventHandler != null) {
             final EventCartridge cartridge = new EventCartridge();
             cartridge.addEventHandler(eventHandler);
@@ -221,6 +246,75 @@ public class TemplatedQueryStringBuilder extends AbstractInitializableComponent
         }
 
         template = Template.fromTemplate(engine, templateText);
+
+        referencedNames = new HashSet<>();
+        final Matcher m = REFERENCE_NAME.matcher(templateText);
+        while (m.find()) {
+            referencedNames.add(m.group(1));
+        }
+        log.debug("Template text {} references {}", templateText, referencedNames);
+
+        principalOnly = true;
+        for (final String name : referencedNames) {
+            if (!"requestContext".equals(name) && !"resolutionContext".equals(name)) principalOnly = false;
+        }
+        final Matcher c = CONTEXT_PROPERTY.matcher(templateText);
+        while (c.find()) {
+            final String property = c.group(1);
+            if (!"principal".equals(property) && !"principalName".equals(property)) principalOnly = false;
+        }
+
+        simpleTemplate = SimpleTemplate.compile(templateText, v2Compatibility);
+        log.debug("Template text {} rendered without velocity: {}", templateText, simpleTemplate != null);
+    }
+
+    /**
+     * A context that unwraps a dependency's values the first time the template reads it.
+     * Dependencies the template never names are not visible at all.
+     */
+    protected static class LazyDependencyContext extends VelocityContext {
+
+        /** The dependency values. */
+        private final Map<String, List<IdPAttributeValue<?>>> dependencies;
+
+        /** Names the template references. */
+        private final Set<String> referencedNames;
+
+        /**
+         * Constructor.
+         *
+         * @param dependencyAttributes the dependency values, may be null
+         * @param names names the template references
+         */
+        public LazyDependencyContext(@Nullable final Map<String, List<IdPAttributeValue<?>>> dependencyAttributes,
+                @Nonnull final Set<String> names) {
+            dependencies = dependencyAttributes;
+            referencedNames = names;
+        }
+
+        /** {@inheritDoc} */
+        @Override public Object internalGet(final String key) {
+            Object value = super.internalGet(key);
+            if (value == null && isDependency(key)) {
+                final List<IdPAttributeValue<?>> values = dependencies.get(key);
+                final List<Object> list = new ArrayList<>(values.size());
+                for (final IdPAttributeValue<?> v : values) {
+                    list.add(v.getValue());
+                }
+                super.internalPut(key, list);
+                value = list;
+            }
+            return value;
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean internalContainsKey(final Object key) {
+            return super.internalContainsKey(key) || isDependency(key);
+        }
+
+        private boolean isDependency(final Object key) {
+            return dependencies != null && referencedNames.contains(key) && dependencies.get(key) != null;
+        }
     }
 
     /** Escapes SQL values added to the template context. */
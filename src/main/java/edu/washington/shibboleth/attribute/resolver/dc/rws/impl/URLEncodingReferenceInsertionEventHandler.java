@@ -0,0 +1,130 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.velocity.app.event.ReferenceInsertionEventHandler;
+
+/**
+ * Percent-encodes string values inserted into a query template so they are safe as a URL
+ * path segment or query parameter (RFC 3986, UTF-8).
+ *
+ * Values made only of unreserved characters, the usual case for principal names, are
+ * returned as is without allocating.
+ */
+public class URLEncodingReferenceInsertionEventHandler implements ReferenceInsertionEventHandler {
+
+    /** RFC 3986 unreserved characters */
+    private static final boolean[] UNRESERVED = new boolean[128];
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) UNRESERVED[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) UNRESERVED[c] = true;
+        for (char c = '0'; c <= '9'; c++) UNRESERVED[c] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['_'] = true;
+        UNRESERVED['~'] = true;
+    }
+
+    @Override
+    public Object referenceInsert(final String reference, final Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Object[]) {
+            final List<Object> encodedValues = new ArrayList<>();
+            for (Object o : (Object[]) value) {
+                encodedValues.add(encodeValue(o));
+            }
+            return encodedValues.toArray();
+        } else if (value instanceof Collection<?>) {
+            final List<Object> encodedValues = new ArrayList<>();
+            for (Object o : (Collection<?>) value) {
+                encodedValues.add(encodeValue(o));
+            }
+            return encodedValues;
+        } else {
+            return encodeValue(value);
+        }
+    }
+
+    private static Object encodeValue(final Object value) {
+        if (value instanceof String) {
+            return encode((String) value);
+        }
+        return value;
+    }
+
+    /**
+     * Percent-encode a string.
+     *
+     * @param s the string
+     * @return the encoded string, the same instance if nothing needed encoding
+     */
+    public static String encode(final String s) {
+        final int n = s.length();
+        int i = 0;
+        while (i < n && isUnreserved(s.charAt(i))) i++;
+        if (i == n) return s;
+
+        final StringBuilder sb = new StringBuilder(n + 16);
+        sb.append(s, 0, i);
+        while (i < n) {
+            final char c = s.charAt(i);
+            if (isUnreserved(c)) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            int cp = s.codePointAt(i);
+            i += Character.charCount(cp);
+            if (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) {
+                cp = '?';  // unpaired surrogate, as URLEncoder does
+            }
+            if (cp < 0x80) {
+                appendByte(sb, cp);
+            } else if (cp < 0x800) {
+                appendByte(sb, 0xC0 | (cp >> 6));
+                appendByte(sb, 0x80 | (cp & 0x3F));
+            } else if (cp < 0x10000) {
+                appendByte(sb, 0xE0 | (cp >> 12));
+                appendByte(sb, 0x80 | ((cp >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (cp & 0x3F));
+            } else {
+                appendByte(sb, 0xF0 | (cp >> 18));
+                appendByte(sb, 0x80 | ((cp >> 12) & 0x3F));
+                appendByte(sb, 0x80 | ((cp >> 6) & 0x3F));
+                appendByte(sb, 0x80 | (cp & 0x3F));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isUnreserved(final char c) {
+        return c < 128 && UNRESERVED[c];
+    }
+
+    private static void appendByte(final StringBuilder sb, final int b) {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+}
@@ -17,6 +17,7 @@
 
 package edu.washington.shibboleth.attribute.resolver.spring.dc.rws;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Vector;
@@ -46,10 +47,14 @@ import net.shibboleth.utilities.java.support.primitive.StringSupport;
 import net.shibboleth.utilities.java.support.xml.AttributeSupport;
 
 import edu.washington.shibboleth.attribute.resolver.spring.dc.UWDataConnectorNamespaceHandler;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.impl.ActivationRequirements;
 import edu.washington.shibboleth.attribute.resolver.dc.rws.impl.RwsDataConnector;
 import edu.washington.shibboleth.attribute.resolver.dc.rws.impl.RwsDataConnector.AUTHENTICATION_TYPE;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.impl.RwsDataConnector.RESPONSE_FORMAT;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.impl.RwsDataConnector.EXECUTION_MODE;
 import edu.washington.shibboleth.attribute.resolver.dc.rws.impl.RwsAttribute;
 import edu.washington.shibboleth.attribute.resolver.dc.rws.impl.TemplatedQueryStringBuilder;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.impl.URLEncodingReferenceInsertionEventHandler;
 
 
 /** Spring bean definition parser for configuring a RWS data connector. */
@@ -65,6 +70,10 @@ public class RwsDataConnectorParser extends AbstractDataConnectorParser {
     public static final QName ATTRIBUTE_ELEMENT_NAME = new QName(UWDataConnectorNamespaceHandler.NAMESPACE,
             "Attribute");
 
+    /** Name of activation requirement element. */
+    public static final QName ACTIVATION_ELEMENT_NAME = new QName(UWDataConnectorNamespaceHandler.NAMESPACE,
+            "ActivationRequirement");
+
     /** {@inheritDoc} */
     @Override protected Class<RwsDataConnector> getNativeBeanClass() {
         return RwsDataConnector.class;
@@ -88,6 +97,15 @@ public class RwsDataConnectorParser extends AbstractDataConnectorParser {
         log.debug("Setting the following attributes for plugin {}: {}", pluginId, attributes);
         builder.addPropertyValue("rwsAttributes", attributes);
 
+        final List<Element> activationElements = ElementSupport.getChildElements(config, ACTIVATION_ELEMENT_NAME);
+        if (activationElements != null && activationElements.size() > 0) {
+            if (config.hasAttributeNS(null, "activationConditionRef")) {
+                log.warn("Data connector {} has both activationConditionRef and ActivationRequirement,"
+                        + " the ActivationRequirements are used", pluginId);
+            }
+            builder.addPropertyValue("activationCondition", createActivationRequirements(config, activationElements));
+        }
+
         String baseURL = StringSupport.trimOrNull(config.getAttribute( "baseURL"));
         log.debug("Data connector {} base URL: {}", pluginId, baseURL);
         builder.addPropertyValue("baseUrl", baseURL);
@@ -99,6 +117,119 @@ public class RwsDataConnectorParser extends AbstractDataConnectorParser {
         log.debug("Data connector {} authentication type: {}", pluginId, authnType);
         builder.addPropertyValue("authenticationType", authnType);
 
+        if (AttributeSupport.hasAttribute(config, new QName("responseFormat"))) {
+            RESPONSE_FORMAT format = RESPONSE_FORMAT.valueOf(StringSupport.trimOrNull(config.getAttribute( "responseFormat")));
+            log.debug("Data connector {} response format: {}", pluginId, format);
+            builder.addPropertyValue("responseFormat", format);
+        }
+
+        if (AttributeSupport.hasAttribute(config, new QName("executionMode"))) {
+            EXECUTION_MODE mode = EXECUTION_MODE.valueOf(StringSupport.trimOrNull(config.getAttribute( "executionMode")));
+            log.debug("Data connector {} execution mode: {}", pluginId, mode);
+            builder.addPropertyValue("executionMode", mode);
+        }
+
+        String maxInFlight = StringSupport.trimOrNull(config.getAttribute( "maxInFlight"));
+        if (maxInFlight!=null) {
+            builder.addPropertyValue("maxInFlight", Integer.parseInt(maxInFlight));
+        }
+
+        String resolveTimeout = StringSupport.trimOrNull(config.getAttribute( "resolveTimeout"));
+        if (resolveTimeout!=null) {
+            builder.addPropertyValue("resolveTimeout", Long.parseLong(resolveTimeout));
+        }
+
+        String fieldsParameter = StringSupport.trimOrNull(config.getAttribute( "fieldsParameter"));
+        if (fieldsParameter!=null) {
+            log.debug("Data connector {} fields parameter: {}", pluginId, fieldsParameter);
+            builder.addPropertyValue("fieldsParameter", fieldsParameter);
+        }
+
+        String fields = StringSupport.trimOrNull(config.getAttribute( "fields"));
+        if (fields!=null) {
+            builder.addPropertyValue("fields", fields);
+        }
+
+        String backgroundProfiles = StringSupport.trimOrNull(config.getAttribute( "backgroundProfiles"));
+        if (backgroundProfiles!=null) {
+            log.debug("Data connector {} background profiles: {}", pluginId, backgroundProfiles);
+            builder.addPropertyValue("backgroundProfiles", backgroundProfiles);
+        }
+
+        String backgroundRequesters = StringSupport.trimOrNull(config.getAttribute( "backgroundRequesters"));
+        if (backgroundRequesters!=null) {
+            log.debug("Data connector {} background requesters: {}", pluginId, backgroundRequesters);
+            builder.addPropertyValue("backgroundRequesters", backgroundRequesters);
+        }
+
+        String cacheResults = StringSupport.trimOrNull(config.getAttribute( "cacheResults"));
+        if (cacheResults!=null) {
+            log.debug("Data connector {} cache results: {}", pluginId, cacheResults);
+            builder.addPropertyValue("cacheResults", Boolean.parseBoolean(cacheResults));
+        }
+
+        String cacheTtl = StringSupport.trimOrNull(config.getAttribute( "cacheTtl"));
+        if (cacheTtl!=null) {
+            builder.addPropertyValue("cacheTtl", Long.parseLong(cacheTtl));
+        }
+
+        String cacheMinTtl = StringSupport.trimOrNull(config.getAttribute( "cacheMinTtl"));
+        if (cacheMinTtl!=null) {
+            builder.addPropertyValue("cacheMinTtl", Long.parseLong(cacheMinTtl));
+        }
+
+        String cacheMaxTtl = StringSupport.trimOrNull(config.getAttribute( "cacheMaxTtl"));
+        if (cacheMaxTtl!=null) {
+            builder.addPropertyValue("cacheMaxTtl", Long.parseLong(cacheMaxTtl));
+        }
+
+        String cacheSize = StringSupport.trimOrNull(config.getAttribute( "cacheSize"));
+        if (cacheSize!=null) {
+            builder.addPropertyValue("cacheSize", Integer.parseInt(cacheSize));
+        }
+
+        String nextPagePath = StringSupport.trimOrNull(config.getAttribute( "nextPagePath"));
+        if (nextPagePath!=null) {
+            log.debug("Data connector {} next page path: {}", pluginId, nextPagePath);
+            builder.addPropertyValue("nextPagePath", nextPagePath);
+        }
+
+        String pageStartParameter = StringSupport.trimOrNull(config.getAttribute( "pageStartParameter"));
+        if (pageStartParameter!=null) {
+            builder.addPropertyValue("pageStartParameter", pageStartParameter);
+        }
+
+        String pageSizeParameter = StringSupport.trimOrNull(config.getAttribute( "pageSizeParameter"));
+        if (pageSizeParameter!=null) {
+            builder.addPropertyValue("pageSizeParameter", pageSizeParameter);
+        }
+
+        String pageSize = StringSupport.trimOrNull(config.getAttribute( "pageSize"));
+        if (pageSize!=null) {
+            builder.addPropertyValue("pageSize", Integer.parseInt(pageSize));
+        }
+
+        String firstPageStart = StringSupport.trimOrNull(config.getAttribute( "firstPageStart"));
+        if (firstPageStart!=null) {
+            builder.addPropertyValue("firstPageStart", Integer.parseInt(firstPageStart));
+        }
+
+        String maxPages = StringSupport.trimOrNull(config.getAttribute( "maxPages"));
+        if (maxPages!=null) {
+            builder.addPropertyValue("maxPages", Integer.parseInt(maxPages));
+        }
+
+        String shareResponses = StringSupport.trimOrNull(config.getAttribute( "shareResponses"));
+        if (shareResponses!=null) {
+            builder.addPropertyValue("shareResponses", Boolean.parseBoolean(shareResponses));
+        }
+
+        String prefetchTtl = StringSupport.trimOrNull(config.getAttribute( "prefetchTtl"));
+        if (prefetchTtl!=null) {
+            log.debug("Data connector {} prefetch ttl: {}ms", pluginId, prefetchTtl);
+            builder.addPropertyValue("prefetchTtl", Long.parseLong(prefetchTtl));
+        }
+
         String username = StringSupport.trimOrNull(config.getAttribute( "username"));
         if (username!=null) log.debug("Data connector {} username: {}", pluginId, username);
         builder.addPropertyValue("username", username);
@@ -106,6 +237,23 @@ public class RwsDataConnectorParser extends AbstractDataConnectorParser {
         String password = StringSupport.trimOrNull(config.getAttribute( "password"));
         builder.addPropertyValue("password", password);
 
+        String slowThreshold = StringSupport.trimOrNull(config.getAttribute( "slowResolutionThreshold"));
+        if (slowThreshold!=null) {
+            log.debug("Data connector {} slow resolution threshold: {}ms", pluginId, slowThreshold);
+            builder.addPropertyValue("slowResolutionThreshold", Long.parseLong(slowThreshold));
+        }
+
+        String redactPrincipal = StringSupport.trimOrNull(config.getAttribute( "redactPrincipal"));
+        if (redactPrincipal!=null) {
+            builder.addPropertyValue("redactPrincipal", Boolean.parseBoolean(redactPrincipal));
+        }
+
+        String valuePoolSize = StringSupport.trimOrNull(config.getAttribute( "valuePoolSize"));
+        if (valuePoolSize!=null) {
+            log.debug("Data connector {} value pool size: {}", pluginId, valuePoolSize);
+            builder.addPropertyValue("valuePoolSize", Integer.parseInt(valuePoolSize));
+        }
+
 
 /***
         int maxConnections = 0;
@@ -161,6 +309,38 @@ public class RwsDataConnectorParser extends AbstractDataConnectorParser {
 **/
     }
 
+        /**
+         * Construct the definition of the activation condition of the relying parties given
+         * by the ActivationRequirement elements.
+         *
+         * @return the bean definition for the activation requirements.
+         */
+        @Nonnull public BeanDefinition createActivationRequirements(final Element config,
+                final List<Element> activationElements) {
+            final BeanDefinitionBuilder activationBuilder =
+                    BeanDefinitionBuilder.genericBeanDefinition(ActivationRequirements.class);
+            activationBuilder.setInitMethodName("initialize");
+            activationBuilder.setDestroyMethodName("destroy");
+
+            List<String> entityIds = new ArrayList<String>();
+            List<String> files = new ArrayList<String>();
+            for (Element ele : activationElements) {
+                String entityId = StringSupport.trimOrNull(ele.getAttributeNS(null, "entityId"));
+                if (entityId != null) entityIds.add(entityId);
+                String file = StringSupport.trimOrNull(ele.getAttributeNS(null, "file"));
+                if (file != null) files.add(file);
+            }
+            log.debug("Data connector activated by {} and files {}", entityIds, files);
+            activationBuilder.addPropertyValue("entityIds", entityIds);
+            activationBuilder.addPropertyValue("files", files);
+
+            String activationCheckInterval = StringSupport.trimOrNull(config.getAttribute("activationCheckInterval"));
+            if (activationCheckInterval!=null) {
+                activationBuilder.addPropertyValue("checkInterval", Long.parseLong(activationCheckInterval));
+            }
+            return activationBuilder.getBeanDefinition();
+        }
+
         /**
          * Construct the definition of the template driven search builder.
          *
@@ -179,6 +359,13 @@ public class RwsDataConnectorParser extends AbstractDataConnectorParser {
 
             templateBuilder.addPropertyValue("v2Compatibility", true);
 
+            String valueEncoding = StringSupport.trimOrNull(config.getAttribute("valueEncoding"));
+            if ("URL".equals(valueEncoding)) {
+                log.debug("query template values will be url encoded");
+                templateBuilder.addPropertyValue("referenceInsertionEventHandler",
+                        new URLEncodingReferenceInsertionEventHandler());
+            }
+
             String filter = null;
             final Element filterElement =
                     ElementSupport.getFirstChildElement(config, new QName(
@@ -208,10 +395,11 @@ public class RwsDataConnectorParser extends AbstractDataConnectorParser {
         for (Element ele : elements) {
             RwsAttribute rwsAttribute = new RwsAttribute();
             rwsAttribute.name = StringSupport.trimOrNull(ele.getAttributeNS(null, "name"));
-    log.debug("parseattribute: " + rwsAttribute.name);
-    System.out.println("parseattribute: " + rwsAttribute.name);
+            log.debug("parseattribute: {}", rwsAttribute.name);
             rwsAttribute.xPath = StringSupport.trimOrNull(ele.getAttributeNS(null, "xPath"));
-            rwsAttribute.maxResultSize = 1;
+            rwsAttribute.jsonPath = StringSupport.trimOrNull(ele.getAttributeNS(null, "jsonPath"));
+            rwsAttribute.field = StringSupport.trimOrNull(ele.getAttributeNS(null, "field"));
+            rwsAttribute.maxResultSize = 0;
             if (ele.hasAttributeNS(null, "maxResultSize")) {
                    rwsAttribute.maxResultSize = Integer.parseInt(ele.getAttributeNS(null, "maxResultSize"));
             }
@@ -219,6 +407,9 @@ public class RwsDataConnectorParser extends AbstractDataConnectorParser {
             if (ele.hasAttributeNS(null, "noResultIsError")) {
                    rwsAttribute.noResultIsError = AttributeSupport.getAttributeValueAsBoolean(ele.getAttributeNodeNS(null, "noResultIsError"));
             }
+            if (ele.hasAttributeNS(null, "shareValues")) {
+                   rwsAttribute.shareValues = AttributeSupport.getAttributeValueAsBoolean(ele.getAttributeNodeNS(null, "shareValues"));
+            }
             rwsAttributes.add(rwsAttribute);
         }
         return rwsAttributes;
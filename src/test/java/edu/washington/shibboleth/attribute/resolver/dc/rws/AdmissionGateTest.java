@@ -0,0 +1,106 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import edu.washington.shibboleth.attribute.resolver.dc.rws.HttpDataSource.AdmissionGate;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.HttpDataSource.PRIORITY;
+
+/**
+ * Tests for the {@link HttpDataSource} admission gate.
+ */
+public class AdmissionGateTest {
+
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+
+    @After public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    private Future<Boolean> acquire(final AdmissionGate gate, final PRIORITY priority, final long timeout) {
+        return threads.submit(new Callable<Boolean>() {
+            public Boolean call() throws InterruptedException {
+                return gate.acquire(priority, timeout);
+            }
+        });
+    }
+
+    @Test public void admitsUpToPermits() throws InterruptedException {
+        AdmissionGate gate = new AdmissionGate(2);
+        assertTrue(gate.acquire(PRIORITY.INTERACTIVE, 10));
+        assertTrue(gate.acquire(PRIORITY.BACKGROUND, 10));
+        assertFalse(gate.acquire(PRIORITY.BACKGROUND, 10));
+        gate.release();
+        assertTrue(gate.acquire(PRIORITY.BACKGROUND, 10));
+    }
+
+    @Test public void interactiveTimesOut() throws InterruptedException {
+        AdmissionGate gate = new AdmissionGate(1);
+        assertTrue(gate.acquire(PRIORITY.INTERACTIVE, 10));
+        long start = System.currentTimeMillis();
+        assertFalse(gate.acquire(PRIORITY.INTERACTIVE, 50));
+        assertTrue(System.currentTimeMillis() - start >= 50);
+    }
+
+    @Test public void interactiveBeforeBackground() throws Exception {
+        AdmissionGate gate = new AdmissionGate(1);
+        assertTrue(gate.acquire(PRIORITY.INTERACTIVE, 10));
+        Future<Boolean> background = acquire(gate, PRIORITY.BACKGROUND, 5000);
+        Thread.sleep(50);
+        Future<Boolean> interactive = acquire(gate, PRIORITY.INTERACTIVE, 5000);
+        Thread.sleep(50);
+        gate.release();
+        assertTrue(interactive.get(1, TimeUnit.SECONDS));
+        assertFalse(background.isDone());
+        gate.release();
+        assertTrue(background.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test public void backgroundShedWhileInteractiveWaits() throws Exception {
+        AdmissionGate gate = new AdmissionGate(1);
+        assertTrue(gate.acquire(PRIORITY.INTERACTIVE, 10));
+        Future<Boolean> interactive = acquire(gate, PRIORITY.INTERACTIVE, 5000);
+        Thread.sleep(50);
+        gate.release();
+        // the interactive waiter has the permit
+        assertTrue(interactive.get(1, TimeUnit.SECONDS));
+        assertFalse(gate.acquire(PRIORITY.BACKGROUND, 50));
+    }
+
+    @Test public void backgroundGoesWhenInteractiveGivesUp() throws Exception {
+        AdmissionGate gate = new AdmissionGate(1);
+        assertTrue(gate.acquire(PRIORITY.INTERACTIVE, 10));
+        Future<Boolean> interactive = acquire(gate, PRIORITY.INTERACTIVE, 100);
+        Thread.sleep(20);
+        Future<Boolean> background = acquire(gate, PRIORITY.BACKGROUND, 5000);
+        assertFalse(interactive.get(1, TimeUnit.SECONDS));
+        gate.release();
+        assertTrue(background.get(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,172 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.conn.DnsResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CachingDnsResolver}.
+ */
+public class CachingDnsResolverTest {
+
+    /** a resolver answering from a map, counting its lookups */
+    private static class MapResolver implements DnsResolver {
+        final Map<String, InetAddress[]> hosts = new HashMap<String, InetAddress[]>();
+        int lookups;
+
+        public synchronized InetAddress[] resolve(String host) throws UnknownHostException {
+            lookups++;
+            InetAddress[] addresses = hosts.get(host);
+            if (addresses == null) throw new UnknownHostException(host);
+            return addresses.clone();
+        }
+    }
+
+    private static InetAddress address(String host, int last) throws UnknownHostException {
+        return InetAddress.getByAddress(host, new byte[] {10, 0, 0, (byte) last});
+    }
+
+    private MapResolver dns;
+
+    private CachingDnsResolver resolver;
+
+    @Before public void setUp() throws UnknownHostException {
+        dns = new MapResolver();
+        dns.hosts.put("a.example.edu", new InetAddress[] {address("a.example.edu", 1)});
+        resolver = new CachingDnsResolver();
+        resolver.setDelegate(dns);
+        resolver.setRefreshInterval(0);
+    }
+
+    @After public void tearDown() {
+        resolver.close();
+    }
+
+    @Test public void cachesForTtl() throws Exception {
+        resolver.setTtl(100);
+        InetAddress[] first = resolver.resolve("a.example.edu");
+        assertArrayEquals(first, resolver.resolve("a.example.edu"));
+        assertEquals(1, dns.lookups);
+        Thread.sleep(150);
+        resolver.resolve("a.example.edu");
+        assertEquals(2, dns.lookups);
+    }
+
+    @Test public void cachesFailuresForNegativeTtl() throws Exception {
+        resolver.setNegativeTtl(100);
+        for (int i = 0; i < 3; i++) {
+            try {
+                resolver.resolve("unknown.example.edu");
+                fail("resolved an unknown host");
+            } catch (UnknownHostException e) {
+                // expected
+            }
+        }
+        assertEquals(1, dns.lookups);
+        Thread.sleep(150);
+        dns.hosts.put("unknown.example.edu", new InetAddress[] {address("unknown.example.edu", 9)});
+        assertEquals(address("unknown.example.edu", 9), resolver.resolve("unknown.example.edu")[0]);
+    }
+
+    @Test public void failedLookupKeepsAddresses() throws Exception {
+        resolver.setTtl(50);
+        InetAddress[] first = resolver.resolve("a.example.edu");
+        dns.hosts.remove("a.example.edu");
+        Thread.sleep(100);
+        assertArrayEquals(first, resolver.resolve("a.example.edu"));
+        assertEquals(2, dns.lookups);
+    }
+
+    @Test public void rotatesAddresses() throws Exception {
+        InetAddress[] addresses = new InetAddress[] {
+            address("b.example.edu", 1), address("b.example.edu", 2), address("b.example.edu", 3)};
+        dns.hosts.put("b.example.edu", addresses);
+        for (int i = 0; i < 6; i++) {
+            InetAddress[] rotated = resolver.resolve("b.example.edu");
+            assertEquals(3, rotated.length);
+            for (int j = 0; j < 3; j++) {
+                assertEquals(addresses[(i + j) % 3], rotated[j]);
+            }
+        }
+    }
+
+    @Test public void refreshLooksUpUsedHostsAndDropsExpired() throws Exception {
+        resolver.setTtl(50);
+        dns.hosts.put("b.example.edu", new InetAddress[] {address("b.example.edu", 2)});
+        resolver.resolve("a.example.edu");
+        resolver.resolve("b.example.edu");
+        assertEquals(2, dns.lookups);
+
+        // both used: both looked up again
+        resolver.refresh();
+        assertEquals(4, dns.lookups);
+
+        // a used since, b not
+        resolver.resolve("a.example.edu");
+        Thread.sleep(100);
+        resolver.refresh();
+        assertEquals(5, dns.lookups);
+
+        // a was refreshed and is fresh, b expired and was dropped
+        resolver.resolve("a.example.edu");
+        assertEquals(5, dns.lookups);
+        resolver.resolve("b.example.edu");
+        assertEquals(6, dns.lookups);
+    }
+
+    @Test public void closeStopsRefreshAndClears() throws Exception {
+        resolver.setRefreshInterval(20);
+        resolver.resolve("a.example.edu");
+        Thread.sleep(100);
+        resolver.close();
+        assertFalse(refresherRunning(1000));
+        int lookups = dns.lookups;
+        Thread.sleep(100);
+        assertEquals(lookups, dns.lookups);
+
+        // the cache is empty: the next lookup goes to the delegate
+        resolver.resolve("a.example.edu");
+        assertEquals(lookups + 1, dns.lookups);
+    }
+
+    /** whether the refresh thread is still alive after waiting up to timeout ms */
+    private static boolean refresherRunning(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            boolean running = false;
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                if ("CachingDnsResolver refresh".equals(t.getName()) && t.isAlive()) running = true;
+            }
+            if (!running || System.currentTimeMillis() > deadline) return running;
+            Thread.sleep(10);
+        }
+    }
+}
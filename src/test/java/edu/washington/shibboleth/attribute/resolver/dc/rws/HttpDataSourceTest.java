@@ -0,0 +1,245 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Tests for {@link HttpDataSource} against a local TLS server.
+ */
+public class HttpDataSourceTest {
+
+    private HttpsServer server;
+
+    private ExecutorService serverThreads;
+
+    private String baseUrl;
+
+    /** copy of the server's certificate, the data source's CA file */
+    private File caFile;
+
+    private HttpDataSource dataSource;
+
+    /** answers each request with the client port of its connection */
+    @Before public void setUp() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = getClass().getResourceAsStream("/tls/localhost.p12");
+        try {
+            keyStore.load(in, "changeit".toCharArray());
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "changeit".toCharArray());
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+
+        server = HttpsServer.create(new InetSocketAddress(0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = Integer.toString(exchange.getRemoteAddress().getPort()).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/plain");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        baseUrl = "https://localhost:" + server.getAddress().getPort() + "/";
+
+        caFile = File.createTempFile("rws-ca", ".pem");
+        copy(getClass().getResourceAsStream("/tls/localhost.pem"), caFile, false);
+        dataSource = new HttpDataSource();
+        dataSource.setCaCertificateFile(caFile.getPath());
+        dataSource.setCredentialCheckInterval(0);
+        dataSource.initialize();
+    }
+
+    @After public void tearDown() {
+        if (dataSource != null) dataSource.close();
+        if (server != null) server.stop(0);
+        if (serverThreads != null) serverThreads.shutdownNow();
+        if (caFile != null) caFile.delete();
+    }
+
+    private static void copy(InputStream in, File file, boolean append) throws IOException {
+        OutputStream out = new FileOutputStream(file, append);
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /** the client port of the connection a request used */
+    private String port() throws IOException {
+        return dataSource.getResource(baseUrl, null, new ResponseReader<String>() {
+            public String read(Reader content) throws IOException {
+                return JsonResponseReader.TEXT.read(content);
+            }
+        });
+    }
+
+    /** change the CA file, as a rotation would, and have the data source notice */
+    private void rotate() throws IOException {
+        copy(new ByteArrayInputStream("\n".getBytes("UTF-8")), caFile, true);
+        caFile.setLastModified(caFile.lastModified() + 2000);
+        dataSource.checkCredentials();
+    }
+
+    @Test public void reusesConnections() throws IOException {
+        assertEquals(port(), port());
+    }
+
+    @Test public void idleConnectionsClosedOnRotation() throws IOException {
+        String before = port();
+        assertEquals(before, port());
+        rotate();
+        assertEquals(0, dataSource.getPoolStats().getAvailable());
+        assertNotEquals(before, port());
+    }
+
+    @Test public void leasedConnectionNotReusedAfterRotation() throws IOException {
+        // the rotation happens while the request holds its connection, before the
+        // body is read to its end and the connection is released
+        String before = dataSource.getResource(baseUrl, null, new ResponseReader<String>() {
+            public String read(Reader content) throws IOException {
+                rotate();
+                return JsonResponseReader.TEXT.read(content);
+            }
+        });
+        String after = port();
+        assertNotEquals(before, after);
+        assertEquals(after, port());
+    }
+
+    @Test public void interactiveAdmissionTimesOut() throws IOException {
+        final HttpDataSource gated = new HttpDataSource();
+        gated.setCaCertificateFile(caFile.getPath());
+        gated.setCredentialCheckInterval(0);
+        gated.setMaxConnections(1);
+        gated.setAdmissionControl(true);
+        gated.setConnectionRequestTimeout(100);
+        gated.initialize();
+        try {
+            // a second request while the only permit is held
+            gated.getResource(baseUrl, null, new ResponseReader<String>() {
+                public String read(Reader content) throws IOException {
+                    long start = System.currentTimeMillis();
+                    try {
+                        gated.getResource(baseUrl, null, JsonResponseReader.TEXT);
+                        fail("admitted beyond maxConnections");
+                    } catch (IOException e) {
+                        assertTrue(e.getMessage().contains("admission"));
+                    }
+                    assertTrue(System.currentTimeMillis() - start >= 100);
+                    return JsonResponseReader.TEXT.read(content);
+                }
+            });
+        } finally {
+            gated.close();
+        }
+    }
+
+    private static HttpResponse response(String... headers) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        for (int i = 0; i < headers.length; i += 2) {
+            response.addHeader(headers[i], headers[i + 1]);
+        }
+        return response;
+    }
+
+    @Test public void freshnessFromCacheControl() {
+        assertEquals(-1, HttpDataSource.getFreshness(response()));
+        assertEquals(60000, HttpDataSource.getFreshness(response("Cache-Control", "max-age=60")));
+        assertEquals(30000, HttpDataSource.getFreshness(response(
+                "Cache-Control", "public, max-age=60, s-maxage=30")));
+        assertEquals(30000, HttpDataSource.getFreshness(response(
+                "Cache-Control", "s-maxage=30", "Cache-Control", "max-age=60")));
+        assertEquals(0, HttpDataSource.getFreshness(response("Cache-Control", "no-store")));
+        assertEquals(0, HttpDataSource.getFreshness(response("Cache-Control", "max-age=60, No-Cache")));
+        assertEquals(0, HttpDataSource.getFreshness(response("Cache-Control", "private, max-age=60")));
+    }
+
+    @Test public void freshnessLessAge() {
+        assertEquals(45000, HttpDataSource.getFreshness(response("Cache-Control", "max-age=60", "Age", "15")));
+        assertEquals(0, HttpDataSource.getFreshness(response("Cache-Control", "max-age=60", "Age", "90")));
+    }
+
+    @Test public void freshnessFromExpires() {
+        Date date = new Date(1500000000000L);
+        assertEquals(120000, HttpDataSource.getFreshness(response(
+                "Date", DateUtils.formatDate(date),
+                "Expires", DateUtils.formatDate(new Date(date.getTime() + 120000)))));
+        // max-age wins over Expires
+        assertEquals(60000, HttpDataSource.getFreshness(response(
+                "Cache-Control", "max-age=60",
+                "Date", DateUtils.formatDate(date),
+                "Expires", DateUtils.formatDate(new Date(date.getTime() + 120000)))));
+        // an Expires that can not be parsed is in the past
+        assertEquals(0, HttpDataSource.getFreshness(response("Expires", "0")));
+        assertEquals(0, HttpDataSource.getFreshness(response(
+                "Date", DateUtils.formatDate(date), "Expires", DateUtils.formatDate(date))));
+    }
+
+    @Test public void freshnessWithBadNumbers() {
+        assertEquals(-1, HttpDataSource.getFreshness(response("Cache-Control", "max-age=soon")));
+        assertEquals(60000, HttpDataSource.getFreshness(response("Cache-Control", "max-age=60", "Age", "old")));
+    }
+}
@@ -0,0 +1,47 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link RequestStatistics} error sampling.
+ */
+public class RequestStatisticsTest {
+
+    @Test public void firstErrorOfEachInterval() throws InterruptedException {
+        RequestStatistics statistics = new RequestStatistics("test", 100);
+        assertTrue(statistics.recordError());
+        assertFalse(statistics.recordError());
+        assertFalse(statistics.recordError());
+        Thread.sleep(150);
+        // no summary has been logged, the error interval still ends
+        assertTrue(statistics.recordError());
+        assertFalse(statistics.recordError());
+    }
+
+    @Test public void everyErrorWithoutInterval() {
+        RequestStatistics statistics = new RequestStatistics("test", 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(statistics.recordError());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TrafficCapture}.
+ */
+public class TrafficCaptureTest {
+
+    private final List<File> files = new ArrayList<File>();
+
+    private File file;
+
+    @Before public void setUp() throws IOException {
+        file = newFile();
+    }
+
+    @After public void tearDown() {
+        for (File f : files) {
+            f.delete();
+        }
+    }
+
+    private File newFile() throws IOException {
+        File f = File.createTempFile("capture", ".tsv");
+        files.add(f);
+        return f;
+    }
+
+    private static String contents(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[(int) f.length()];
+            int n = 0;
+            while (n < buf.length) {
+                int r = in.read(buf, n, buf.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+            return new String(buf, 0, n, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test public void roundTrip() throws IOException {
+        TrafficCapture capture = new TrafficCapture(file.getPath(), true, null);
+        capture.record(1000L, 2000L, 200, "https://ws.example.edu/a?x=1\t2", "line 1\nline\t2\r\n\\end");
+        capture.record(1001L, 2001L, 0, "https://ws.example.edu/b", null);
+        capture.close();
+
+        List<TrafficCapture.Record> records = TrafficCapture.read(file.getPath());
+        assertEquals(2, records.size());
+        TrafficCapture.Record r = records.get(0);
+        assertEquals(1000L, r.start);
+        assertEquals(2000L, r.nanos);
+        assertEquals(200, r.status);
+        assertEquals("https://ws.example.edu/a?x=1\t2", r.url);
+        assertEquals("line 1\nline\t2\r\n\\end", r.body);
+        r = records.get(1);
+        assertEquals(0, r.status);
+        assertNull(r.body);
+    }
+
+    @Test public void bodyStartingWithDash() throws IOException {
+        TrafficCapture capture = new TrafficCapture(file.getPath(), true, null);
+        capture.record(1L, 1L, 200, "https://ws.example.edu/a", "-");
+        capture.record(1L, 1L, 200, "https://ws.example.edu/a", "-1");
+        capture.record(1L, 1L, 200, "https://ws.example.edu/a", "\\-");
+        capture.record(1L, 1L, 200, "https://ws.example.edu/a", "");
+        capture.close();
+
+        List<TrafficCapture.Record> records = TrafficCapture.read(file.getPath());
+        assertEquals("-", records.get(0).body);
+        assertEquals("-1", records.get(1).body);
+        assertEquals("\\-", records.get(2).body);
+        assertEquals("", records.get(3).body);
+    }
+
+    @Test public void bodiesNotCaptured() throws IOException {
+        TrafficCapture capture = new TrafficCapture(file.getPath(), false, null);
+        assertFalse(capture.isCapturingBodies());
+        capture.record(1L, 1L, 200, "https://ws.example.edu/a", "secret");
+        capture.close();
+        assertNull(TrafficCapture.read(file.getPath()).get(0).body);
+        assertFalse(contents(file).contains("secret"));
+    }
+
+    @Test public void redacts() throws IOException {
+        TrafficCapture capture = new TrafficCapture(file.getPath(), true, "user[0-9]+");
+        capture.record(1L, 1L, 200, "https://ws.example.edu/person/user1", "{\"id\":\"user1\",\"sponsor\":\"user22\"}");
+        capture.close();
+
+        assertFalse(contents(file).contains("user1"));
+        assertFalse(contents(file).contains("user22"));
+        TrafficCapture.Record r = TrafficCapture.read(file.getPath()).get(0);
+        String token = r.url.substring(r.url.lastIndexOf('/') + 1);
+        assertTrue(token, token.matches("r[0-9a-f]{16}"));
+        // one user, one token
+        assertTrue(r.body.startsWith("{\"id\":\"" + token + "\",\"sponsor\":\"r"));
+        assertFalse(r.body.contains(token + "\"}"));
+    }
+
+    @Test public void tokensDifferAcrossCaptures() throws IOException {
+        File other = newFile();
+        TrafficCapture capture = new TrafficCapture(file.getPath(), false, "user[0-9]+");
+        capture.record(1L, 1L, 200, "https://ws.example.edu/person/user1", null);
+        capture.close();
+        capture = new TrafficCapture(other.getPath(), false, "user[0-9]+");
+        capture.record(1L, 1L, 200, "https://ws.example.edu/person/user1", null);
+        capture.close();
+        assertNotEquals(TrafficCapture.read(file.getPath()).get(0).url, TrafficCapture.read(other.getPath()).get(0).url);
+    }
+
+    @Test public void tee() throws IOException {
+        StringBuilder body = new StringBuilder();
+        StringReader in = new StringReader("captured as read");
+        char[] buf = new char[4];
+        Reader tee = TrafficCapture.tee(in, body);
+        StringBuilder read = new StringBuilder();
+        int n;
+        while ((n = tee.read(buf, 0, buf.length)) > 0) {
+            read.append(buf, 0, n);
+        }
+        assertEquals("captured as read", read.toString());
+        assertEquals("captured as read", body.toString());
+    }
+
+    @Test public void malformedRecord() throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        out.write("1\t2\t200\thttps://ws.example.edu/a\n".getBytes("UTF-8"));
+        out.close();
+        try {
+            TrafficCapture.read(file.getPath());
+            fail("read a record of four fields");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(":1:"));
+        }
+    }
+}
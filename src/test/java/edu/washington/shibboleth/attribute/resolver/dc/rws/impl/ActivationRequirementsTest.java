@@ -0,0 +1,137 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.profile.context.ProfileRequestContext;
+
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.profile.context.RelyingPartyContext;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+/**
+ * Tests for {@link ActivationRequirements}.
+ */
+public class ActivationRequirementsTest {
+
+    private File file;
+
+    private ActivationRequirements requirements;
+
+    @Before public void setUp() throws IOException {
+        file = File.createTempFile("activation", ".txt");
+        requirements = new ActivationRequirements();
+        requirements.setFiles(Collections.singletonList(file.getPath()));
+        requirements.setCheckInterval(0);
+    }
+
+    @After public void tearDown() {
+        requirements.destroy();
+        file.delete();
+    }
+
+    private void write(String content) throws IOException {
+        long before = file.lastModified();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        // a change within the file system's timestamp resolution must still be seen
+        file.setLastModified(before + 2000);
+    }
+
+    @Test public void readsEntityIdsAndSkipsComments() throws Exception {
+        write("# relying parties of the rws connector\n"
+                + "https://sp1.example.edu/shibboleth\n"
+                + "\n"
+                + "   https://sp2.example.edu/shibboleth   # the new portal\n"
+                + "#https://sp3.example.edu/shibboleth\n");
+        requirements.setEntityIds(Arrays.asList("https://direct.example.edu/shibboleth"));
+        requirements.initialize();
+        assertTrue(requirements.isActive("https://sp1.example.edu/shibboleth"));
+        assertTrue(requirements.isActive("https://sp2.example.edu/shibboleth"));
+        assertTrue(requirements.isActive("https://direct.example.edu/shibboleth"));
+        assertFalse(requirements.isActive("https://sp3.example.edu/shibboleth"));
+        assertFalse(requirements.isActive("# relying parties of the rws connector"));
+        assertFalse(requirements.isActive(""));
+        assertFalse(requirements.isActive(null));
+    }
+
+    @Test public void reloadsChangedFile() throws Exception {
+        write("https://sp1.example.edu/shibboleth\n");
+        requirements.initialize();
+        assertTrue(requirements.isActive("https://sp1.example.edu/shibboleth"));
+
+        requirements.checkFiles();
+        assertTrue(requirements.isActive("https://sp1.example.edu/shibboleth"));
+
+        write("https://sp2.example.edu/shibboleth\n");
+        requirements.checkFiles();
+        assertFalse(requirements.isActive("https://sp1.example.edu/shibboleth"));
+        assertTrue(requirements.isActive("https://sp2.example.edu/shibboleth"));
+    }
+
+    @Test public void keepsEntityIdsWhenFileUnreadable() throws Exception {
+        write("https://sp1.example.edu/shibboleth\n");
+        requirements.initialize();
+        assertTrue(file.delete());
+        requirements.checkFiles();
+        assertTrue(requirements.isActive("https://sp1.example.edu/shibboleth"));
+    }
+
+    @Test public void missingFileFailsInitialize() throws Exception {
+        assertTrue(file.delete());
+        try {
+            requirements.initialize();
+            fail("initialized without its file");
+        } catch (ComponentInitializationException e) {
+            // expected
+        }
+    }
+
+    @Test public void appliesToRecipientThenRelyingParty() throws Exception {
+        write("https://sp1.example.edu/shibboleth\n");
+        requirements.initialize();
+
+        ProfileRequestContext prc = new ProfileRequestContext();
+        assertFalse(requirements.apply(prc));
+        prc.getSubcontext(RelyingPartyContext.class, true).setRelyingPartyId("https://sp1.example.edu/shibboleth");
+        assertTrue(requirements.apply(prc));
+        // the resolution's recipient comes first
+        prc.getSubcontext(AttributeResolutionContext.class, true)
+                .setAttributeRecipientID("https://other.example.edu/shibboleth");
+        assertFalse(requirements.apply(prc));
+        assertFalse(requirements.apply(null));
+    }
+}
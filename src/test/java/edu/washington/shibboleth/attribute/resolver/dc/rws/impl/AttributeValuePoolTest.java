@@ -0,0 +1,93 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import net.shibboleth.idp.attribute.StringAttributeValue;
+
+/**
+ * Tests for {@link AttributeValuePool}.
+ */
+public class AttributeValuePoolTest {
+
+    @Test public void sharesValues() {
+        AttributeValuePool pool = new AttributeValuePool(10);
+        StringAttributeValue a = pool.get(new String("u_groups_staff"));
+        assertSame(a, pool.get(new String("u_groups_staff")));
+        assertEquals("u_groups_staff", a.getValue());
+        assertNotSame(a, pool.get("u_groups_faculty"));
+        assertEquals(2, pool.size());
+    }
+
+    @Test public void bounded() {
+        AttributeValuePool pool = new AttributeValuePool(8);
+        for (int i = 0; i < 100; i++) {
+            pool.get("value" + i);
+            assertTrue(pool.size() <= 8);
+        }
+    }
+
+    @Test public void sweepFreesAQuarter() {
+        AttributeValuePool pool = new AttributeValuePool(8);
+        for (int i = 0; i < 8; i++) {
+            pool.get("value" + i);
+        }
+        assertEquals(8, pool.size());
+        pool.get("value8");
+        // swept to 6, then the new value added
+        assertEquals(7, pool.size());
+    }
+
+    @Test public void usedValuesGetASecondChance() {
+        AttributeValuePool pool = new AttributeValuePool(8);
+        StringAttributeValue steady = pool.get("steady");
+        for (int i = 0; i < 7; i++) {
+            pool.get("once" + i);
+        }
+        // values seen once push each other out, not the one in steady use
+        for (int i = 7; i < 50; i++) {
+            assertSame(steady, pool.get("steady"));
+            pool.get("once" + i);
+        }
+        assertSame(steady, pool.get("steady"));
+    }
+
+    @Test public void unusedValueEvictedFirst() {
+        AttributeValuePool pool = new AttributeValuePool(4);
+        StringAttributeValue a = pool.get("a");
+        StringAttributeValue b = pool.get("b");
+        StringAttributeValue c = pool.get("c");
+        StringAttributeValue d = pool.get("d");
+        pool.get("a");
+        pool.get("b");
+        pool.get("c");
+        // the sweep removes d, the only value not asked for again
+        pool.get("e");
+        assertEquals(4, pool.size());
+        assertSame(a, pool.get("a"));
+        assertSame(b, pool.get("b"));
+        assertSame(c, pool.get("c"));
+        assertNotSame(d, pool.get("d"));
+    }
+}
@@ -0,0 +1,251 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.washington.shibboleth.attribute.resolver.dc.rws.HttpDataSource;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.JsonResponseReader;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.ResponseReader;
+
+/**
+ * Tests for {@link JsonPathMatcher}.
+ */
+public class JsonPathMatcherTest {
+
+    private static RwsAttribute attribute(String jsonPath, int maxResultSize) {
+        RwsAttribute attribute = new RwsAttribute();
+        attribute.name = jsonPath;
+        attribute.jsonPath = jsonPath;
+        attribute.maxResultSize = maxResultSize;
+        return attribute;
+    }
+
+    /** values of each path, unlimited */
+    private static List<List<String>> evaluate(String json, String... paths) throws IOException {
+        List<RwsAttribute> attributes = new ArrayList<RwsAttribute>();
+        for (String path : paths) {
+            attributes.add(attribute(path, 0));
+        }
+        return new JsonPathMatcher(attributes).evaluate(new StringReader(json));
+    }
+
+    /** values of one path, unlimited */
+    private static List<String> values(String json, String path) throws IOException {
+        return evaluate(json, path).get(0);
+    }
+
+    @Test public void keysAndIndexes() throws IOException {
+        String json = "{\"a\": {\"b\": [10, 20, {\"c\": \"x\"}]}}";
+        List<List<String>> results = evaluate(json, "$.a.b[1]", "$['a']['b'][2].c", "$.a.b[*]", "$.a.missing");
+        assertEquals(Arrays.asList("20"), results.get(0));
+        assertEquals(Arrays.asList("x"), results.get(1));
+        assertEquals(Arrays.asList("10", "20"), results.get(2));
+        assertEquals(Collections.emptyList(), results.get(3));
+    }
+
+    @Test public void stringEscapes() throws IOException {
+        String json = "{\"s\": \"q\\\"uote \\\\ sl\\/ash \\u00e9\\t\\n\\b\\f\\r\"}";
+        assertEquals(Arrays.asList("q\"uote \\ sl/ash \u00e9\t\n\b\f\r"), values(json, "$.s"));
+    }
+
+    @Test public void escapedKeys() throws IOException {
+        assertEquals(Arrays.asList("1"), values("{\"k\\u0065y\": 1}", "$.key"));
+        assertEquals(Arrays.asList("2"), values("{\"a.b\": 2}", "$['a.b']"));
+    }
+
+    @Test(expected = IOException.class)
+    public void badEscape() throws IOException {
+        values("{\"s\": \"\\x\"}", "$.s");
+    }
+
+    @Test(expected = IOException.class)
+    public void shortUnicodeEscape() throws IOException {
+        values("{\"s\": \"\\u00\"}", "$.s");
+    }
+
+    @Test public void nestedArrays() throws IOException {
+        String json = "{\"m\": [[1, 2], [3, [4]], []]}";
+        List<List<String>> results = evaluate(json, "$.m[1][0]", "$.m[1][1][0]", "$.m[*][*]", "$.m[2][0]");
+        assertEquals(Arrays.asList("3"), results.get(0));
+        assertEquals(Arrays.asList("4"), results.get(1));
+        assertEquals(Arrays.asList("1", "2", "3"), results.get(2));
+        assertEquals(Collections.emptyList(), results.get(3));
+    }
+
+    @Test public void descendant() throws IOException {
+        String json = "{\"a\": {\"name\": \"1\", \"b\": [{\"name\": \"2\"}, {\"c\": {\"name\": \"3\"}}]}, \"name\": \"0\"}";
+        List<List<String>> results = evaluate(json, "$..name", "$.a..name", "$..c.name", "$..b[0].name");
+        assertEquals(Arrays.asList("1", "2", "3", "0"), results.get(0));
+        assertEquals(Arrays.asList("1", "2", "3"), results.get(1));
+        assertEquals(Arrays.asList("3"), results.get(2));
+        assertEquals(Arrays.asList("2"), results.get(3));
+    }
+
+    @Test public void descendantSkipsContainers() throws IOException {
+        assertEquals(Arrays.asList("x"), values("{\"name\": {\"name\": \"x\"}}", "$..name"));
+    }
+
+    @Test public void scalarsAsText() throws IOException {
+        String json = "[true, false, null, -1.5E+3, 0, \"s\"]";
+        assertEquals(Arrays.asList("true", "false", "-1.5E+3", "0", "s"), values(json, "$[*]"));
+    }
+
+    @Test public void attributeWithoutPath() throws IOException {
+        RwsAttribute xml = new RwsAttribute();
+        xml.name = "xml";
+        xml.xPath = "//name";
+        List<List<String>> results = new JsonPathMatcher(Arrays.asList(xml, attribute("$.a", 0)))
+                .evaluate(new StringReader("{\"a\": 1}"));
+        assertNull(results.get(0));
+        assertEquals(Arrays.asList("1"), results.get(1));
+    }
+
+    @Test public void stopsEarlyWhenEveryPathIsFull() throws IOException {
+        // the document is cut short and followed by garbage, which is never read
+        String json = "{\"v\": [1, 2, 3, {\"w\": 9}, oops";
+        List<RwsAttribute> attributes = Arrays.asList(attribute("$.v[*]", 2), attribute("$.v[0]", 1));
+        List<List<String>> results = new JsonPathMatcher(attributes).evaluate(new StringReader(json));
+        assertEquals(Arrays.asList("1", "2"), results.get(0));
+        assertEquals(Arrays.asList("1"), results.get(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void unlimitedPathReadsToTheEnd() throws IOException {
+        String json = "{\"v\": [1, 2, 3, {\"w\": 9}, oops";
+        List<RwsAttribute> attributes = Arrays.asList(attribute("$.v[*]", 2), attribute("$.w", 0));
+        new JsonPathMatcher(attributes).evaluate(new StringReader(json));
+    }
+
+    @Test public void numbers() throws IOException {
+        for (String n : new String[] {"0", "-0", "7", "120", "1.5", "-0.25", "1e5", "1E+5", "-2.5e-10"}) {
+            assertEquals(n, Arrays.asList(n), values("{\"n\": " + n + "}", "$.n"));
+        }
+    }
+
+    @Test public void badLiterals() {
+        for (String bad : new String[] {"1abc", "1-2", "01", "-", "1.", ".5", "+1", "1e", "1.e5", "1e+", "--1",
+                "0x10", "tru", "True", "nul", "NaN", "Infinity"}) {
+            try {
+                values("{\"n\": " + bad + "}", "$.n");
+                fail("accepted " + bad);
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test public void isNumber() {
+        assertTrue(JsonPathMatcher.isNumber("-12.50e3"));
+        assertFalse(JsonPathMatcher.isNumber(""));
+        assertFalse(JsonPathMatcher.isNumber("00"));
+    }
+
+    @Test(expected = IOException.class)
+    public void trailingContent() throws IOException {
+        values("{\"a\": 1} 2", "$.a");
+    }
+
+    @Test(expected = IOException.class)
+    public void trailingComma() throws IOException {
+        values("[1, 2,]", "$[*]");
+    }
+
+    @Test(expected = IOException.class)
+    public void unterminatedString() throws IOException {
+        values("{\"a\": \"b", "$.a");
+    }
+
+    /** a server answering with a UTF-8 document and a content type naming no charset */
+    private static HttpServer server(final byte[] body) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String type = exchange.getRequestURI().getPath().endsWith("json") ? "application/json" : "text/plain";
+                exchange.getResponseHeaders().set("Content-Type", type);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    @Test public void nonAsciiWithoutCharset() throws Exception {
+        String name = "Zo\u00eb Group\u00e9 \u2713";
+        HttpServer server = server(("{\"name\": \"" + name + "\"}").getBytes("UTF-8"));
+        HttpDataSource dataSource = new HttpDataSource();
+        try {
+            dataSource.initialize();
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            final JsonPathMatcher matcher = new JsonPathMatcher(Arrays.asList(attribute("$.name", 0)));
+
+            // a json content type is decoded as UTF-8 whatever the reader
+            ResponseReader<List<List<String>>> reader = new ResponseReader<List<List<String>>>() {
+                public List<List<String>> read(Reader content) throws IOException {
+                    return matcher.evaluate(content);
+                }
+            };
+            assertEquals(Arrays.asList(name), dataSource.getResource(base + "/doc.json", null, reader).get(0));
+
+            // as is a json reader's response whatever the content type
+            ResponseReader<List<List<String>>> jsonReader = new JsonResponseReader<List<List<String>>>() {
+                public List<List<String>> read(Reader content) throws IOException {
+                    return matcher.evaluate(content);
+                }
+            };
+            assertEquals(Arrays.asList(name), dataSource.getResource(base + "/doc", null, jsonReader).get(0));
+        } finally {
+            dataSource.close();
+            server.stop(0);
+        }
+    }
+
+    @Test public void badPaths() {
+        for (String bad : new String[] {"a.b", "$..", "$.a..", "$[x", "$[b]", "$.a.", "$a"}) {
+            try {
+                JsonPathMatcher.compile(bad);
+                fail("compiled " + bad);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+
+import edu.washington.shibboleth.attribute.resolver.dc.rws.HttpDataSource;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.ResourceTiming;
+import edu.washington.shibboleth.attribute.resolver.dc.rws.ResponseReader;
+
+/**
+ * Tests for the {@link RwsDataConnector} result cache.
+ */
+public class RwsDataConnectorCacheTest {
+
+    private static final String RESPONSE = "<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><ul>"
+            + "<li><a class=\"name\" href=\"/group/u_test_group\">u_test_group</a></li>"
+            + "</ul></body></html>";
+
+    /** answers every request with RESPONSE, with the freshness its headers would give */
+    private static class CountingDataSource extends HttpDataSource {
+        int calls;
+        volatile long freshness = -1;
+
+        @Override public <T> T getResource(String url, ResourceTiming timing, ResponseReader<T> reader)
+                throws IOException {
+            calls++;
+            if (timing != null) timing.freshness = freshness;
+            return reader.read(new StringReader(RESPONSE));
+        }
+    }
+
+    private CountingDataSource dataSource;
+
+    private RwsDataConnector connector;
+
+    @Before public void setUp() {
+        dataSource = new CountingDataSource();
+        RwsAttribute attr = new RwsAttribute();
+        attr.name = "memberOf";
+        attr.xPath = "//*[@class='name']";
+        List<RwsAttribute> attrs = new ArrayList<RwsAttribute>();
+        attrs.add(attr);
+
+        connector = new RwsDataConnector();
+        connector.setId("cacheTest");
+        connector.setBaseUrl("https://localhost/");
+        connector.setHttpDataSource(dataSource);
+        connector.setQueryStringBuilder(new TemplatedQueryStringBuilder() {
+            @Override protected void doInitialize() {
+            }
+
+            @Override public boolean isPrincipalOnly() {
+                return true;
+            }
+
+            @Override protected String getQueryString(AttributeResolutionContext resolutionContext,
+                    Map<String, List<IdPAttributeValue<?>>> dependencyAttributes) {
+                return "search?member=" + resolutionContext.getPrincipal();
+            }
+        });
+        connector.setRwsAttributes(attrs);
+        connector.setCacheResults(true);
+    }
+
+    @After public void tearDown() {
+        connector.destroy();
+    }
+
+    private Map<String, IdPAttribute> resolve(String principal) throws Exception {
+        AttributeResolutionContext context = new AttributeResolutionContext();
+        context.setPrincipal(principal);
+        Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+                context.getSubcontext(AttributeResolverWorkContext.class, true));
+        assertEquals("u_test_group", attributes.get("memberOf").getValues().get(0).getValue());
+        return attributes;
+    }
+
+    @Test public void cacheTtlWithoutHeaders() throws Exception {
+        connector.setCacheTtl(100);
+        connector.initialize();
+        resolve("user1");
+        resolve("user1");
+        assertEquals(1, dataSource.calls);
+        Thread.sleep(150);
+        resolve("user1");
+        assertEquals(2, dataSource.calls);
+    }
+
+    @Test public void noCacheTtlWithoutHeaders() throws Exception {
+        connector.initialize();
+        resolve("user1");
+        resolve("user1");
+        assertEquals(2, dataSource.calls);
+    }
+
+    @Test public void headersOverrideCacheTtl() throws Exception {
+        connector.setCacheTtl(60000);
+        connector.initialize();
+        dataSource.freshness = 100;
+        resolve("user1");
+        resolve("user1");
+        assertEquals(1, dataSource.calls);
+        Thread.sleep(150);
+        resolve("user1");
+        assertEquals(2, dataSource.calls);
+    }
+
+    @Test public void notCachedWhenHeadersForbid() throws Exception {
+        connector.setCacheTtl(60000);
+        connector.setCacheMinTtl(60000);
+        connector.initialize();
+        dataSource.freshness = 0;
+        resolve("user1");
+        resolve("user1");
+        assertEquals(2, dataSource.calls);
+    }
+
+    @Test public void minAndMaxTtl() throws Exception {
+        connector.setCacheMinTtl(60000);
+        connector.setCacheMaxTtl(100);
+        connector.initialize();
+        // raised to the minimum, then capped at the maximum
+        dataSource.freshness = 1;
+        resolve("user1");
+        Thread.sleep(20);
+        resolve("user1");
+        assertEquals(1, dataSource.calls);
+        Thread.sleep(150);
+        resolve("user1");
+        assertEquals(2, dataSource.calls);
+    }
+
+    @Test public void notCachedWithoutCacheResults() throws Exception {
+        connector.setCacheResults(false);
+        connector.setCacheTtl(60000);
+        connector.initialize();
+        resolve("user1");
+        resolve("user1");
+        assertEquals(2, dataSource.calls);
+    }
+
+    @Test public void evictsSoonestExpiring() throws Exception {
+        connector.setCacheSize(8);
+        connector.initialize();
+        // the first result is the oldest but expires last
+        dataSource.freshness = 600000;
+        resolve("keep");
+        for (int i = 0; i < 20; i++) {
+            dataSource.freshness = 60000 + i * 1000;
+            resolve("user" + i);
+        }
+        assertEquals(21, dataSource.calls);
+
+        resolve("keep");
+        resolve("user19");
+        assertEquals(21, dataSource.calls);
+        resolve("user0");
+        assertEquals(22, dataSource.calls);
+    }
+}
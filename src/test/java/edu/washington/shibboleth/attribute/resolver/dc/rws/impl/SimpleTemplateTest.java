@@ -0,0 +1,155 @@
+/* ========================================================================
+ * Copyright (c) 2015 The University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ========================================================================
+ */
+
+package edu.washington.shibboleth.attribute.resolver.dc.rws.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.utilities.java.support.velocity.Template;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.app.event.EventCartridge;
+import org.apache.velocity.app.event.ReferenceInsertionEventHandler;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.internet2.middleware.shibboleth.common.attribute.provider.V2SAMLProfileRequestContext;
+
+/**
+ * Tests that {@link SimpleTemplate} renders as Velocity does, and leaves to Velocity the
+ * templates it can not render.
+ */
+public class SimpleTemplateTest {
+
+    /** templates SimpleTemplate compiles */
+    private static final String[] SIMPLE = {
+        "group_sws/v3/search?member=${resolutionContext.principal}&type=effective",
+        "group_sws/v3/search?member=$resolutionContext.principal&type=effective",
+        "person/$requestContext.principalName/full.json",
+        "sp=${requestContext.inboundMessageIssuer}&idp=${requestContext.outboundMessageIssuer}",
+        "sp=$resolutionContext.attributeRecipientID&idp=$resolutionContext.attributeIssuerID",
+        "regid=${uwRegID}&groups=$groups",
+        "missing=${missing}&quiet=$!{missing}&bare=$missing&bareQuiet=$!missing",
+        "price=$5&end=$",
+        "no references at all",
+        "$resolutionContext.principal.",
+    };
+
+    /** templates that need Velocity */
+    private static final String[] VELOCITY = {
+        "#if($groups)x#end",
+        "a\\$b",
+        "$groups.size()",
+        "$groups[0]",
+        "${resolutionContext.principal.length()}",
+        "$resolutionContext.subjectContext",
+        "$requestContext.peerEntityId",
+        "$uwRegID.value",
+    };
+
+    private VelocityEngine engine;
+
+    private AttributeResolutionContext context;
+
+    private Map<String, List<IdPAttributeValue<?>>> dependencies;
+
+    @Before public void setUp() {
+        engine = net.shibboleth.utilities.java.support.velocity.VelocityEngine.newVelocityEngine();
+        context = new AttributeResolutionContext();
+        context.setPrincipal("jo smith@uw.edu");
+        context.setAttributeRecipientID("https://sp.example.org/shibboleth?a=1&b=2");
+        context.setAttributeIssuerID("urn:mace:incommon:washington.edu");
+        dependencies = new HashMap<String, List<IdPAttributeValue<?>>>();
+        dependencies.put("uwRegID", Collections.<IdPAttributeValue<?>>singletonList(new StringAttributeValue("ABC123")));
+        dependencies.put("groups", Arrays.<IdPAttributeValue<?>>asList(
+                new StringAttributeValue("u_a"), new StringAttributeValue("u_b")));
+    }
+
+    /** render with Velocity, with the context TemplatedQueryStringBuilder builds */
+    private String velocity(String text, ReferenceInsertionEventHandler handler) {
+        VelocityContext velocityContext = new VelocityContext();
+        velocityContext.put("resolutionContext", context);
+        velocityContext.put("requestContext", new V2SAMLProfileRequestContext(context, null));
+        for (Map.Entry<String, List<IdPAttributeValue<?>>> entry : dependencies.entrySet()) {
+            List<Object> values = new ArrayList<Object>();
+            for (IdPAttributeValue<?> value : entry.getValue()) {
+                values.add(value.getValue());
+            }
+            velocityContext.put(entry.getKey(), values);
+        }
+        if (handler != null) {
+            EventCartridge cartridge = new EventCartridge();
+            cartridge.addEventHandler(handler);
+            cartridge.attachToContext(velocityContext);
+        }
+        return Template.fromTemplate(engine, text).merge(velocityContext);
+    }
+
+    private void assertRendersAsVelocity(ReferenceInsertionEventHandler handler) {
+        for (String text : SIMPLE) {
+            SimpleTemplate simple = SimpleTemplate.compile(text, true);
+            assertNotNull("not simple: " + text, simple);
+            assertEquals(text, velocity(text, handler), simple.render(context, dependencies, handler));
+        }
+    }
+
+    @Test public void rendersAsVelocity() {
+        assertRendersAsVelocity(null);
+    }
+
+    @Test public void rendersAsVelocityWithUrlEncoding() {
+        assertRendersAsVelocity(new URLEncodingReferenceInsertionEventHandler());
+    }
+
+    @Test public void rendersAsVelocityWithEscaping() {
+        assertRendersAsVelocity(new TemplatedQueryStringBuilder.EscapingReferenceInsertionEventHandler());
+    }
+
+    @Test public void rendersNullPrincipalAsVelocity() {
+        context.setPrincipal(null);
+        assertRendersAsVelocity(null);
+    }
+
+    @Test public void rendersWithoutDependenciesAsVelocity() {
+        dependencies.clear();
+        assertRendersAsVelocity(null);
+    }
+
+    @Test public void leavesComplexTemplatesToVelocity() {
+        for (String text : VELOCITY) {
+            assertNull("simple: " + text, SimpleTemplate.compile(text, true));
+        }
+    }
+
+    @Test public void requestContextNeedsV2Compatibility() {
+        assertNull(SimpleTemplate.compile("person/$requestContext.principalName", false));
+        assertNotNull(SimpleTemplate.compile("person/$resolutionContext.principal", false));
+    }
+}